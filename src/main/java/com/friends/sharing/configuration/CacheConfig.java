@@ -0,0 +1,13 @@
+package com.friends.sharing.configuration;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+// Caches are Caffeine-backed, sizes and expiry come from spring.cache.caffeine.spec
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String USERS_BY_EMAIL = "usersByEmail";
+    public static final String HELD_ITEMS = "heldItems";
+    public static final String OWNED_ITEMS = "ownedItems";
+}
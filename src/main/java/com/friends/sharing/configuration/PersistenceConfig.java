@@ -0,0 +1,45 @@
+package com.friends.sharing.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PersistenceConfig {
+    @Bean
+    public StatementCounter statementCounter() {
+        return new StatementCounter();
+    }
+
+    // every pool bean is counted once, routing data sources on top of them are not; shard pools are no beans,
+    // ShardingConfig wraps them itself
+    @Bean
+    public static BeanPostProcessor statementCountingPools(ObjectProvider<StatementCounter> statementCounter) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof HikariDataSource pool
+                        ? new StatementCountingDataSource(pool, statementCounter.getObject())
+                        : bean;
+            }
+        };
+    }
+
+    // before the security chain, so the user lookup of the authentication is counted too
+    @Bean
+    public FilterRegistrationBean<StatementLimitFilter> statementLimitFilter(
+            StatementCounter statementCounter,
+            @Value("${friends-sharing.statements.per-request-limit:10}") int limit,
+            @Value("${friends-sharing.statements.fail-on-limit:false}") boolean failOnLimit) {
+        FilterRegistrationBean<StatementLimitFilter> registration =
+                new FilterRegistrationBean<>(new StatementLimitFilter(statementCounter, limit, failOnLimit));
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 1);
+        return registration;
+    }
+}
@@ -0,0 +1,47 @@
+package com.friends.sharing.configuration;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Read-only transactions go to the replica, everything else and pinned reads go to the primary.
+// Only works behind a LazyConnectionDataSourceProxy: the connection must be taken after the transaction is marked read-only.
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+    public enum Route {
+        PRIMARY, REPLICA
+    }
+
+    private static final ThreadLocal<Boolean> pinnedToPrimary = new ThreadLocal<>();
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica) {
+        setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    public static <T> T onPrimary(Supplier<T> read) {
+        if (isPinnedToPrimary()) {
+            return read.get();
+        }
+
+        pinnedToPrimary.set(true);
+        try {
+            return read.get();
+        } finally {
+            pinnedToPrimary.remove();
+        }
+    }
+
+    public static boolean isPinnedToPrimary() {
+        return pinnedToPrimary.get() != null;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !isPinnedToPrimary()
+                ? Route.REPLICA : Route.PRIMARY;
+    }
+}
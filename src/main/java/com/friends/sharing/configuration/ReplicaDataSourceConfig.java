@@ -0,0 +1,64 @@
+package com.friends.sharing.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+// Only with friends-sharing.datasource.replica.url set, otherwise Boot's single pool serves everything.
+// Not combined with sharding, which routes by shard instead.
+@Configuration
+@ConditionalOnProperty("friends-sharing.datasource.replica.url")
+@ConditionalOnExpression("'${friends-sharing.sharding.urls:}'.isEmpty()")
+public class ReplicaDataSourceConfig {
+    public static final String PRIMARY_DATA_SOURCE = "primaryDataSource";
+    public static final String REPLICA_DATA_SOURCE = "replicaDataSource";
+
+    @Bean(PRIMARY_DATA_SOURCE)
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean(REPLICA_DATA_SOURCE)
+    @ConfigurationProperties("friends-sharing.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties properties,
+                                              @Value("${friends-sharing.datasource.replica.url}") String url,
+                                              @Value("${friends-sharing.datasource.replica.username:${spring.datasource.username:}}")
+                                              String username,
+                                              @Value("${friends-sharing.datasource.replica.password:${spring.datasource.password:}}")
+                                              String password) {
+        HikariDataSource replica = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .driverClassName(properties.determineDriverClassName())
+                .url(url)
+                .username(username)
+                .password(password)
+                .build();
+        replica.setReadOnly(true);
+        return replica;
+    }
+
+    @Bean
+    public ReadWriteRoutingDataSource readWriteRoutingDataSource(@Qualifier(PRIMARY_DATA_SOURCE) DataSource primary,
+                                                                 @Qualifier(REPLICA_DATA_SOURCE) DataSource replica) {
+        return new ReadWriteRoutingDataSource(primary, replica);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadWriteRoutingDataSource readWriteRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(readWriteRoutingDataSource);
+    }
+}
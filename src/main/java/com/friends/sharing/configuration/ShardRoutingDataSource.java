@@ -0,0 +1,69 @@
+package com.friends.sharing.configuration;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Sends a connection to the shard bound to the current thread, shard 0 (users, history) when none is.
+// Like the replica routing, it only works behind a LazyConnectionDataSourceProxy: a transaction takes its shard
+// at the first statement and keeps it, a later onShard() call inside the same transaction has no effect.
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+    private static final ThreadLocal<Integer> currentShard = new ThreadLocal<>();
+
+    private final List<DataSource> shards;
+
+    public ShardRoutingDataSource(List<DataSource> shards) {
+        this.shards = List.copyOf(shards);
+        Map<Object, Object> targets = new HashMap<>();
+        for (int shard = 0; shard < shards.size(); shard++) {
+            targets.put(shard, shards.get(shard));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(shards.get(0));
+        afterPropertiesSet();
+    }
+
+    public static <T> T onShard(int shard, Supplier<T> action) {
+        Integer previous = currentShard.get();
+        currentShard.set(shard);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                currentShard.remove();
+            } else {
+                currentShard.set(previous);
+            }
+        }
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    // the pool itself, outside of any transaction bound to the routing data source
+    public DataSource getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Integer shard = currentShard.get();
+        return shard == null ? 0 : shard;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (DataSource shard : shards) {
+            if (shard instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+}
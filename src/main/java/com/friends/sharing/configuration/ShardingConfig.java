@@ -0,0 +1,112 @@
+package com.friends.sharing.configuration;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import jakarta.persistence.EntityManagerFactory;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+// Only with friends-sharing.sharding.urls set. Shard 0 is spring.datasource and keeps users and lending history,
+// every url adds a shard; books are placed by owner (see BookShards) and users are copied to every shard.
+// Scheduling is only enabled here, it retries the moves of given books between shards.
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty("friends-sharing.sharding.urls")
+public class ShardingConfig {
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariConfig shardPoolConfig() {
+        return new HikariConfig();
+    }
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(
+            DataSourceProperties properties,
+            HikariConfig shardPoolConfig,
+            StatementCounter statementCounter,
+            @Value("${friends-sharing.sharding.urls}") List<String> urls,
+            @Value("${friends-sharing.sharding.username:${spring.datasource.username:}}") String username,
+            @Value("${friends-sharing.sharding.password:${spring.datasource.password:}}") String password) {
+        List<DataSource> shards = new ArrayList<>();
+        shards.add(new StatementCountingDataSource(pool(shardPoolConfig, properties.determineDriverClassName(),
+                properties.determineUrl(), properties.determineUsername(), properties.determinePassword(), 0),
+                statementCounter));
+        for (String url : urls) {
+            shards.add(new StatementCountingDataSource(pool(shardPoolConfig, properties.determineDriverClassName(),
+                    url.strip(), username, password, shards.size()), statementCounter));
+        }
+        return new ShardRoutingDataSource(shards);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+
+    // Hibernate only creates the schema of shard 0, the other shards get the same tables here.
+    // Book ids come from book_id_sequence on shard 0 (see BookShards.assignBookIds), the columns stop generating
+    // them: a moved book's id would otherwise raise the target's counter into the ids of another shard.
+    // Runs after data.sql, so the sequence starts above its books.
+    @Bean
+    @DependsOnDatabaseInitialization
+    public InitializingBean shardSchemaInitializer(EntityManagerFactory entityManagerFactory,
+                                                   ShardRoutingDataSource shardRoutingDataSource,
+                                                   @Value("${spring.jpa.hibernate.ddl-auto:none}") String ddlAuto) {
+        return () -> {
+            var schemaManager = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getSchemaManager();
+            long maxBookId = 0;
+            for (int shard = 0; shard < shardRoutingDataSource.getShardCount(); shard++) {
+                if (shard > 0 && ddlAuto.startsWith("create")) {
+                    ShardRoutingDataSource.onShard(shard, () -> {
+                        schemaManager.dropMappedObjects(true);
+                        schemaManager.exportMappedObjects(true);
+                        return null;
+                    });
+                }
+                JdbcTemplate jdbcTemplate = new JdbcTemplate(shardRoutingDataSource.getShard(shard));
+                jdbcTemplate.execute("ALTER TABLE books MODIFY book_id bigint NOT NULL");
+                // books given away from this shard and not yet moved to the new owner's, see BookShards
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS book_moves (book_id bigint NOT NULL PRIMARY KEY, " +
+                        "owner_id bigint NOT NULL, KEY idx_book_moves_owner (owner_id))");
+                maxBookId = Math.max(maxBookId, jdbcTemplate.queryForObject(
+                        "SELECT COALESCE(MAX(book_id), 0) FROM books", Long.class));
+            }
+
+            JdbcTemplate sequence = new JdbcTemplate(shardRoutingDataSource.getShard(0));
+            sequence.execute("CREATE TABLE IF NOT EXISTS book_id_sequence (next_val bigint NOT NULL)");
+            sequence.update("INSERT INTO book_id_sequence(next_val) SELECT 1 FROM DUAL " +
+                    "WHERE NOT EXISTS (SELECT * FROM book_id_sequence)");
+            sequence.update("UPDATE book_id_sequence SET next_val = GREATEST(next_val, ?)", maxBookId + 1);
+        };
+    }
+
+    private static HikariDataSource pool(HikariConfig poolConfig, String driverClassName, String url,
+                                         String username, String password, int shard) {
+        HikariConfig config = new HikariConfig();
+        poolConfig.copyStateTo(config);
+        config.setDriverClassName(driverClassName);
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setPoolName("shard-" + shard);
+        return new HikariDataSource(config);
+    }
+}
@@ -0,0 +1,38 @@
+package com.friends.sharing.configuration;
+
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Counts the statements of the current request, see StatementCountingDataSource. Tasks decorated here count towards
+// the thread that submitted them, so the shard fan-out and the async MVC executor are not missed.
+public class StatementCounter implements TaskDecorator {
+    private final ThreadLocal<AtomicInteger> count = ThreadLocal.withInitial(AtomicInteger::new);
+
+    public void executed() {
+        count.get().incrementAndGet();
+    }
+
+    // a new counter, tasks of the previous request that are still running keep counting into theirs
+    public void reset() {
+        count.set(new AtomicInteger());
+    }
+
+    public int getCount() {
+        return count.get().get();
+    }
+
+    @Override
+    public Runnable decorate(Runnable task) {
+        AtomicInteger submitter = count.get();
+        return () -> {
+            AtomicInteger previous = count.get();
+            count.set(submitter);
+            try {
+                task.run();
+            } finally {
+                count.set(previous);
+            }
+        };
+    }
+}
@@ -0,0 +1,75 @@
+package com.friends.sharing.configuration;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Counts every statement executed on a pool's connections, whoever runs it: Hibernate, JdbcTemplate or a shard move.
+// A batch is one round trip and counts once.
+public class StatementCountingDataSource extends DelegatingDataSource implements Closeable {
+    private final StatementCounter statementCounter;
+
+    public StatementCountingDataSource(DataSource pool, StatementCounter statementCounter) {
+        super(pool);
+        this.statementCounter = statementCounter;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return counting(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return counting(super.getConnection(username, password));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (getTargetDataSource() instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    private Connection counting(Connection connection) {
+        return proxy(Connection.class, connection, (target, method, args) -> {
+            Object result = method.invoke(target, args);
+            return result instanceof Statement statement && method.getName().matches("createStatement|prepare.*")
+                    ? proxy(method.getReturnType(), statement, this::execute)
+                    : result;
+        });
+    }
+
+    private Object execute(Object statement, Method method, Object[] args) throws Throwable {
+        if (method.getName().startsWith("execute")) {
+            statementCounter.executed();
+        }
+        return method.invoke(statement, args);
+    }
+
+    private interface Call {
+        Object invoke(Object target, Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<?> type, Object target, Call call) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            try {
+                return call.invoke(target, method, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        @SuppressWarnings("unchecked")
+        T proxy = (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+        return proxy;
+    }
+}
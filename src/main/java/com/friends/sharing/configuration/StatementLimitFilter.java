@@ -0,0 +1,38 @@
+package com.friends.sharing.configuration;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+@Slf4j
+@AllArgsConstructor
+public class StatementLimitFilter extends OncePerRequestFilter {
+    private final StatementCounter statementCounter;
+    private final int limit;
+    private final boolean failOnLimit; //for tests, production only logs
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        statementCounter.reset();
+        filterChain.doFilter(request, response);
+
+        int count = statementCounter.getCount();
+        if (count > limit) {
+            String message = String.format("%s %s executed %d SQL statements, the limit is %d",
+                    request.getMethod(), request.getRequestURI(), count, limit);
+            if (failOnLimit) {
+                throw new IllegalStateException(message);
+            }
+            log.warn(message);
+        }
+    }
+}
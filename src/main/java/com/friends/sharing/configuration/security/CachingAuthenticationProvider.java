@@ -0,0 +1,41 @@
+package com.friends.sharing.configuration.security;
+
+import lombok.AllArgsConstructor;
+
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+import java.util.Optional;
+
+@AllArgsConstructor
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+    private final AuthenticationProvider delegate;
+    private final CredentialCache credentialCache;
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        String username = authentication.getName();
+        String password = authentication.getCredentials() == null ? null : authentication.getCredentials().toString();
+        if (password == null) {
+            return delegate.authenticate(authentication);
+        }
+
+        Optional<UserAdapter> cached = credentialCache.get(username, password);
+        if (cached.isPresent()) {
+            return UsernamePasswordAuthenticationToken.authenticated(cached.get(), null, cached.get().getAuthorities());
+        }
+
+        Authentication result = delegate.authenticate(authentication);
+        if (result != null && result.getPrincipal() instanceof UserAdapter user) {
+            credentialCache.put(username, password, user);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+    }
+}
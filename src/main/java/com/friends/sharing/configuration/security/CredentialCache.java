@@ -0,0 +1,136 @@
+package com.friends.sharing.configuration.security;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Successful basic-auth checks keyed by an HMAC of username+password, so repeated requests skip BCrypt and the user lookup
+@Slf4j
+public class CredentialCache implements MeterBinder {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final SecretKey key;
+    private final Map<String, Entry> entries;
+    private final Map<String, Set<String>> keysByUsername = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private record Entry(String username, UserAdapter user, long expiresAt) {
+    }
+
+    public CredentialCache(int maxSize, long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        try {
+            this.key = KeyGenerator.getInstance("HmacSHA256").generateKey(); // per process, digests are useless outside it
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= CredentialCache.this.maxSize) {
+                    return false;
+                }
+                unindex(eldest.getKey(), eldest.getValue().username());
+                return true;
+            }
+        };
+    }
+
+    public Optional<UserAdapter> get(String username, String password) {
+        String digest = digest(username, password);
+        synchronized (this) {
+            Entry entry = entries.get(digest);
+            if (entry != null && entry.expiresAt() - System.nanoTime() > 0) {
+                hits.incrementAndGet();
+                return Optional.of(entry.user());
+            }
+            if (entry != null) {
+                entries.remove(digest);
+                unindex(digest, entry.username());
+            }
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    public synchronized void put(String username, String password, UserAdapter user) {
+        if (maxSize <= 0) {
+            return;
+        }
+        String digest = digest(username, password);
+        entries.put(digest, new Entry(username, user, System.nanoTime() + ttlNanos));
+        keysByUsername.computeIfAbsent(username, x -> new HashSet<>()).add(digest);
+    }
+
+    // Must be called whenever a user's password, authority or details change
+    public synchronized void evict(String username) {
+        Set<String> digests = keysByUsername.remove(username);
+        if (digests != null) {
+            digests.forEach(entries::remove);
+            log.debug("Evicted {} cached credentials of {}", digests.size(), username);
+        }
+    }
+
+    public synchronized void evictAll() {
+        entries.clear();
+        keysByUsername.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    // same names and tag keys as the cache metrics Boot registers for the CacheManager, so they chart together
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("cache.gets", this, CredentialCache::getHits)
+                .tags("cache", "credentials", "cache.manager", "credentialCache", "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", this, CredentialCache::getMisses)
+                .tags("cache", "credentials", "cache.manager", "credentialCache", "result", "miss")
+                .register(registry);
+        Gauge.builder("cache.size", this, CredentialCache::size)
+                .tags("cache", "credentials", "cache.manager", "credentialCache")
+                .register(registry);
+    }
+
+    private void unindex(String digest, String username) {
+        Set<String> digests = keysByUsername.get(username);
+        if (digests != null && digests.remove(digest) && digests.isEmpty()) {
+            keysByUsername.remove(username);
+        }
+    }
+
+    private String digest(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return HexFormat.of().formatHex(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
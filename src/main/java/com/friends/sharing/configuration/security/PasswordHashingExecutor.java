@@ -0,0 +1,122 @@
+package com.friends.sharing.configuration.security;
+
+import com.friends.sharing.exception.ServiceBusyException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// BCrypt runs on its own small pool so a registration burst can't occupy every request thread;
+// when the queue is full callers are turned away immediately instead of piling up
+@Slf4j
+public class PasswordHashingExecutor implements DisposableBean, MeterBinder {
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong hashed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public PasswordHashingExecutor(PasswordEncoder passwordEncoder, int poolSize, int queueCapacity) {
+        this.passwordEncoder = passwordEncoder;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("password-hashing-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public String encode(CharSequence rawPassword) {
+        Future<String> future;
+        try {
+            future = executor.submit(() -> timedEncode(rawPassword));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            log.warn("Password hashing queue is full ({} waiting), rejecting request", getQueueDepth());
+            throw new ServiceBusyException("Too many registrations at the moment, try again later!");
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new ServiceBusyException("Registration was interrupted, try again later!");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getHashedCount() {
+        return hashed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getAverageLatencyMillis() {
+        long count = hashed.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count);
+    }
+
+    public long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("friends.sharing.password.hashing.queue.depth", this, PasswordHashingExecutor::getQueueDepth)
+                .register(registry);
+        Gauge.builder("friends.sharing.password.hashing.active", this, PasswordHashingExecutor::getActiveCount)
+                .register(registry);
+        // count, total and mean of the hashing time; the average getter is this total over the count
+        FunctionTimer.builder("friends.sharing.password.hashing", this,
+                        PasswordHashingExecutor::getHashedCount, executor -> executor.totalNanos.get(),
+                        TimeUnit.NANOSECONDS)
+                .register(registry);
+        Gauge.builder("friends.sharing.password.hashing.max", this, executor -> executor.maxNanos.get())
+                .baseUnit("nanoseconds")
+                .register(registry);
+        FunctionCounter.builder("friends.sharing.password.hashing.rejected", this,
+                        PasswordHashingExecutor::getRejectedCount)
+                .register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    private String timedEncode(CharSequence rawPassword) {
+        long start = System.nanoTime();
+        String hash = passwordEncoder.encode(rawPassword);
+        long elapsed = System.nanoTime() - start;
+
+        hashed.incrementAndGet();
+        totalNanos.addAndGet(elapsed);
+        maxNanos.accumulateAndGet(elapsed, Math::max);
+        log.debug("Password hashed in {} ms, {} waiting", TimeUnit.NANOSECONDS.toMillis(elapsed), getQueueDepth());
+        return hash;
+    }
+}
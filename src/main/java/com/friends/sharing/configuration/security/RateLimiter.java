@@ -0,0 +1,102 @@
+package com.friends.sharing.configuration.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket per user, kept as the time at which the bucket would be full again (GCRA),
+// so taking a token is a single compare-and-set. Idle buckets are dropped once they would have refilled.
+// Time comes from a monotonic ticker, a wall clock stepped back by NTP would hand out or withhold a whole burst.
+public class RateLimiter implements MeterBinder {
+    private final Map<Authorities, Limit> limits;
+    private final Ticker ticker;
+    private final Cache<String, AtomicLong> buckets;
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public record Limit(int capacity, double refillPerSecond) {
+        long intervalNanos() {
+            return (long) (TimeUnit.SECONDS.toNanos(1) / refillPerSecond);
+        }
+
+        long burstNanos() {
+            return intervalNanos() * capacity;
+        }
+    }
+
+    public record Decision(boolean allowed, int limit, int remaining, long retryAfterSeconds) {
+    }
+
+    public RateLimiter(Map<Authorities, Limit> limits, int maxUsers, Ticker ticker) {
+        this.limits = Map.copyOf(limits);
+        this.ticker = ticker;
+        long idleNanos = this.limits.values().stream().mapToLong(Limit::burstNanos).max().orElse(0);
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(Duration.ofNanos(idleNanos))
+                .ticker(ticker)
+                .build();
+    }
+
+    public Decision tryAcquire(String username, Authorities authority) {
+        Limit limit = limits.get(authority);
+        long interval = limit.intervalNanos();
+        long burst = limit.burstNanos();
+        long now = ticker.read();
+        AtomicLong fullAt = buckets.get(username + '\0' + authority, key -> new AtomicLong(now));
+
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + interval;
+            long debt = next - now;
+            if (debt > burst) {
+                rejected.incrementAndGet();
+                long wait = debt - burst;
+                return new Decision(false, limit.capacity(), 0,
+                        Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                allowed.incrementAndGet();
+                return new Decision(true, limit.capacity(), (int) ((burst - debt) / interval), 0);
+            }
+        }
+    }
+
+    public void evictAll() {
+        buckets.invalidateAll();
+    }
+
+    public long getTrackedUsers() {
+        return buckets.estimatedSize();
+    }
+
+    public long getAllowedCount() {
+        return allowed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("friends.sharing.rate.limit.requests", this, RateLimiter::getAllowedCount)
+                .tag("result", "allowed")
+                .register(registry);
+        FunctionCounter.builder("friends.sharing.rate.limit.requests", this, RateLimiter::getRejectedCount)
+                .tag("result", "rejected")
+                .register(registry);
+        Gauge.builder("friends.sharing.rate.limit.tracked.users", this, RateLimiter::getTrackedUsers)
+                .register(registry);
+    }
+}
@@ -1,17 +1,26 @@
 package com.friends.sharing.configuration.security;
 
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
+import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 
+import java.time.Clock;
 import java.util.Arrays;
+import java.util.Map;
 
 @Configuration
 @EnableWebSecurity
@@ -20,25 +29,41 @@ public class SecurityConfig {
     String[] allAuthorities = Arrays.stream(Authorities.values()).map(Enum::name).toArray(String[]::new);
 
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, TokenService tokenService,
+                                                   RateLimiter rateLimiter) throws Exception {
         http.authorizeHttpRequests(auth -> auth
                         .requestMatchers(HttpMethod.POST, "/register").permitAll()
+                        .requestMatchers(HttpMethod.POST, "/token").hasAnyAuthority(allAuthorities)
                         .requestMatchers(HttpMethod.GET, "/held").hasAnyAuthority(allAuthorities)
                         .requestMatchers(HttpMethod.GET, "/owned").hasAnyAuthority(allAuthorities)
                         .requestMatchers(HttpMethod.GET, "/items")
                                 .hasAuthority(Authorities.ADMIN.toString())
+                        .requestMatchers(HttpMethod.GET, "/items/export")
+                                .hasAuthority(Authorities.ADMIN.toString())
+                        .requestMatchers(HttpMethod.GET, "/history").hasAnyAuthority(allAuthorities)
+                        .requestMatchers(HttpMethod.GET, "/history/book")
+                                .hasAuthority(Authorities.ADMIN.toString())
+                        .requestMatchers(HttpMethod.GET, "/history/user")
+                                .hasAuthority(Authorities.ADMIN.toString())
                         .requestMatchers(HttpMethod.DELETE, "/book/delete")
                                 .hasAuthority(Authorities.ADMIN.toString())
+                        .requestMatchers(HttpMethod.DELETE, "/book/delete/batch")
+                                .hasAuthority(Authorities.ADMIN.toString())
                         .requestMatchers(HttpMethod.DELETE, "/book/return/force")
                         .hasAuthority(Authorities.ADMIN.toString())
                         /*.requestMatchers(HttpMethod.DELETE, "/present/delete")
                                 .hasAuthority(Authorities.ADMIN.toString())*/
                         .requestMatchers(HttpMethod.POST, "/book/**").hasAnyAuthority(allAuthorities)
                         //.requestMatchers(HttpMethod.POST, "/present/**").hasAnyAuthority(allAuthorities)
+                        .requestMatchers(HttpMethod.GET, "/actuator/health").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/actuator/metrics/**")
+                                .hasAuthority(Authorities.ADMIN.toString())
                         .requestMatchers("/swagger-ui/**").permitAll()
                         .requestMatchers("/v3/api-docs/**").permitAll()
                         .anyRequest().denyAll()
                 )
+                .addFilterBefore(new TokenAuthenticationFilter(tokenService), BasicAuthenticationFilter.class)
+                .addFilterAfter(new RateLimitFilter(rateLimiter), BasicAuthenticationFilter.class)
                 .httpBasic(Customizer.withDefaults())     //to send basic auth in http
                 .formLogin(Customizer.withDefaults())    //for default login form
                 .csrf(AbstractHttpConfigurer::disable); // for POST requests via Postman;
@@ -47,7 +72,48 @@ public class SecurityConfig {
     }
 
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${friends-sharing.auth.bcrypt.strength:10}") int strength) {
+        return new BCryptPasswordEncoder(strength);
+    }
+
+    @Bean
+    public PasswordHashingExecutor passwordHashingExecutor(
+            PasswordEncoder passwordEncoder,
+            @Value("${friends-sharing.auth.hashing.pool-size:2}") int poolSize,
+            @Value("${friends-sharing.auth.hashing.queue-capacity:16}") int queueCapacity) {
+        return new PasswordHashingExecutor(passwordEncoder, poolSize, queueCapacity);
+    }
+
+    @Bean
+    public CredentialCache credentialCache(@Value("${friends-sharing.auth.cache.max-size:10000}") int maxSize,
+                                           @Value("${friends-sharing.auth.cache.ttl-seconds:300}") long ttlSeconds) {
+        return new CredentialCache(maxSize, ttlSeconds);
+    }
+
+    @Bean
+    public AuthenticationProvider authenticationProvider(UserDetailsService userDetailsService,
+                                                         PasswordEncoder passwordEncoder,
+                                                         CredentialCache credentialCache) {
+        DaoAuthenticationProvider daoAuthenticationProvider = new DaoAuthenticationProvider(passwordEncoder);
+        daoAuthenticationProvider.setUserDetailsService(userDetailsService);
+        return new CachingAuthenticationProvider(daoAuthenticationProvider, credentialCache);
+    }
+
+    @Bean
+    public TokenService tokenService(@Value("${friends-sharing.auth.token.secret:}") String secret,
+                                     @Value("${friends-sharing.auth.token.ttl-seconds:900}") long ttlSeconds) {
+        return new TokenService(secret, ttlSeconds, Clock.systemUTC());
+    }
+
+    @Bean
+    public RateLimiter rateLimiter(@Value("${friends-sharing.rate-limit.user.capacity:30}") int userCapacity,
+                                   @Value("${friends-sharing.rate-limit.user.refill-per-second:5}") double userRefill,
+                                   @Value("${friends-sharing.rate-limit.admin.capacity:120}") int adminCapacity,
+                                   @Value("${friends-sharing.rate-limit.admin.refill-per-second:20}") double adminRefill,
+                                   @Value("${friends-sharing.rate-limit.max-users:100000}") int maxUsers) {
+        return new RateLimiter(Map.of(
+                Authorities.USER, new RateLimiter.Limit(userCapacity, userRefill),
+                Authorities.ADMIN, new RateLimiter.Limit(adminCapacity, adminRefill)),
+                maxUsers, Ticker.systemTicker());
     }
 }
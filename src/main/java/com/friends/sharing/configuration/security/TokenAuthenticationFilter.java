@@ -0,0 +1,60 @@
+package com.friends.sharing.configuration.security;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.AllArgsConstructor;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.context.RequestAttributeSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextRepository;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Optional;
+
+@AllArgsConstructor
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+    private static final String BEARER = "Bearer ";
+    private static final RequestMatcher TOKEN_ENDPOINT = AntPathRequestMatcher.antMatcher(HttpMethod.POST, "/token");
+
+    private final TokenService tokenService;
+    private final SecurityContextRepository securityContextRepository = new RequestAttributeSecurityContextRepository();
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        Optional<UserAdapter> user = tokenService.verify(header.substring(BEARER.length()).strip());
+        if (user.isEmpty()) {
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+                user.get(), null, user.get().getAuthorities()));
+        SecurityContextHolder.setContext(context);
+        securityContextRepository.saveContext(context, request, response); //restored on async dispatches, e.g. the /items/export stream
+        filterChain.doFilter(request, response);
+    }
+
+    // tokens are only issued against real credentials, otherwise a token could renew itself forever
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return TOKEN_ENDPOINT.matches(request);
+    }
+}
@@ -0,0 +1,104 @@
+package com.friends.sharing.configuration.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.friends.sharing.dto.response.TokenResponse;
+import com.friends.sharing.model.User;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.Optional;
+
+// Self-contained HMAC-signed tokens: "<base64url claims>.<base64url signature>"
+@Slf4j
+public class TokenService {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKey key;
+    private final long ttlSeconds;
+    private final Clock clock;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    record Claims(Long id, String email, String name, Authorities authority, long exp) {
+    }
+
+    public TokenService(String secret, long ttlSeconds, Clock clock) {
+        this.key = secret == null || secret.isBlank() ? randomKey() : new SecretKeySpec(decodeSecret(secret), ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        this.clock = clock;
+    }
+
+    public TokenResponse issue(User user) {
+        Claims claims = new Claims(user.getUser_id(), user.getEmail(), user.getName(), user.getAuthority(),
+                clock.instant().getEpochSecond() + ttlSeconds);
+        try {
+            String payload = ENCODER.encodeToString(objectMapper.writeValueAsBytes(claims));
+            return new TokenResponse(payload + "." + ENCODER.encodeToString(sign(payload)), "Bearer", ttlSeconds);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Optional<UserAdapter> verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot != token.lastIndexOf('.')) {
+            return Optional.empty();
+        }
+        String payload = token.substring(0, dot);
+        try {
+            if (!MessageDigest.isEqual(sign(payload), DECODER.decode(token.substring(dot + 1)))) {
+                return Optional.empty();
+            }
+            Claims claims = objectMapper.readValue(DECODER.decode(payload), Claims.class);
+            if (claims.exp() <= clock.instant().getEpochSecond()) {
+                return Optional.empty();
+            }
+            return Optional.of(new UserAdapter(User.builder()
+                    .user_id(claims.id())
+                    .email(claims.email())
+                    .name(claims.name())
+                    .authority(claims.authority())
+                    .build()));
+        } catch (IllegalArgumentException | IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] decodeSecret(String secret) {
+        byte[] bytes = Base64.getDecoder().decode(secret);
+        if (bytes.length < 32) {
+            throw new IllegalStateException("friends-sharing.auth.token.secret must be at least 32 bytes (Base64)");
+        }
+        return bytes;
+    }
+
+    private static SecretKey randomKey() {
+        log.warn("friends-sharing.auth.token.secret is not set, tokens will only be valid on this instance");
+        try {
+            return KeyGenerator.getInstance(ALGORITHM).generateKey();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.friends.sharing.controller;
 
+import com.friends.sharing.configuration.security.TokenService;
 import com.friends.sharing.configuration.security.UserAdapter;
 import com.friends.sharing.dto.request.*;
 import com.friends.sharing.dto.response.*;
 import com.friends.sharing.service.FriendsSharingService;
+import com.friends.sharing.service.SerializedItemsCache;
 import com.friends.sharing.service.UserDetailsServiceImp;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -17,10 +20,17 @@ import io.swagger.v3.oas.annotations.media.ExampleObject;
 import jakarta.validation.Valid;
 import lombok.AllArgsConstructor;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+import java.util.Locale;
 
 @RestController
 @AllArgsConstructor
@@ -28,16 +38,35 @@ public class FriendsSharingController {
 
     private final UserDetailsServiceImp userDetailsService;
     private final FriendsSharingService friendsSharingService;
+    private final SerializedItemsCache serializedItemsCache;
+    private final TokenService tokenService;
 
     @Operation(summary = "Register new user")
     @ApiResponse(responseCode = "200", description = "User registered", content = @Content)
     @ApiResponse(responseCode = "400", description = "Wrong authority or user already registered", content = @Content)
+    @ApiResponse(responseCode = "503", description = "Too many registrations in progress", content = @Content)
 
     @PostMapping("/register")
     public ResponseEntity<String> register(@Valid @RequestBody RegistrationRequest registrationRequest) {
         return userDetailsService.register(registrationRequest);
     }
 
+    @Operation(summary = "Exchange basic credentials for a short-lived bearer token",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200",
+            description = "Issued token",
+            content = @Content(
+                    schema = @Schema(implementation = TokenResponse.class),
+                    examples = @ExampleObject(
+                            value = "{\"access_token\":\"eyJpZCI6MX0.c2lnbmF0dXJl\",\"token_type\":\"Bearer\"," +
+                                    "\"expires_in\":900}")))
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+
+    @PostMapping("/token")
+    public TokenResponse token(@AuthenticationPrincipal UserAdapter user) {
+        return tokenService.issue(user.getUser());
+    }
+
     @Operation(summary = "Add new book, authorization required",
             security = @SecurityRequirement(name = "basicAuth"))
     @ApiResponse(responseCode = "200",
@@ -48,6 +77,7 @@ public class FriendsSharingController {
                             value = "{\"author\":\"Joshua Bloch\",\"title\":\"Effective Java\"," +
                                     "\"person\":{\"name\":\"vlad\",\"email\":\"email@email.com\"}}")))
     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
 
     @PostMapping("/book/add")
     public BookWithUserDTO addBook(@Valid @RequestBody AddBookRequest addBookRequest,
@@ -55,6 +85,25 @@ public class FriendsSharingController {
         return friendsSharingService.addBook(addBookRequest, user.getUser());
     }
 
+    @Operation(summary = "Add many books at once, authorization required",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200",
+            description = "Added books, in request order",
+            content = @Content(
+                    array = @ArraySchema(schema = @Schema(implementation = BookWithUserDTO.class)),
+                    examples = @ExampleObject(
+                            value = "[{\"author\":\"Joshua Bloch\",\"title\":\"Effective Java\"," +
+                                    "\"person\":{\"name\":\"vlad\",\"email\":\"email@email.com\"}}]")))
+    @ApiResponse(responseCode = "400", description = "Empty or too big list of books", content = @Content)
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
+
+    @PostMapping("/book/add/batch")
+    public List<BookWithUserDTO> addBooks(@Valid @RequestBody AddBooksRequest booksRequest,
+                                          @AuthenticationPrincipal UserAdapter user) {
+        return friendsSharingService.addBooks(booksRequest, user.getUser());
+    }
+
     /*@Operation(summary = "Add present, authorization required",
             security = @SecurityRequirement(name = "basicAuth"))
     @ApiResponse(responseCode = "200",
@@ -85,11 +134,17 @@ public class FriendsSharingController {
                                     "\"person\":{\"name\":\"vlad\",\"email\":\"email@email.com\"}}]}")))/*," +
                                     "\"presents\":[{\"box_color\":\"red\",\"content\":\"books\"," +
                                     "\"person:\"{\"name\":\"vlad\",\"email\":\"email@email.com\"}}]}")))*/
+    @ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match", content = @Content)
     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
 
     @GetMapping("/held")
-    public ItemsWithUser getHeldItems(@AuthenticationPrincipal UserAdapter user) {
-        return friendsSharingService.getHeldItems(user.getUser());
+    public ResponseEntity<ItemsWithUser> getHeldItems(@AuthenticationPrincipal UserAdapter user, WebRequest request) {
+        String etag = friendsSharingService.getUserItemsETag(user.getUser());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        return ResponseEntity.ok().eTag(etag).body(friendsSharingService.getHeldItems(user.getUser()));
     }
 
     //@Operation(summary = "Get a list of the items you own, authorization required",
@@ -105,11 +160,17 @@ public class FriendsSharingController {
                                     "\"person\":{\"name\":\"vlad\",\"email\":\"email@email.com\"}}]}")))/*," +
                                     "\"presents\":[{\"box_color\":\"red\",\"content\":\"books\"," +
                                     "\"person:\"{\"name\":\"vlad\",\"email\":\"email@email.com\"}}]}")))*/
+    @ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match", content = @Content)
     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
 
     @GetMapping("/owned")
-    public ItemsWithUser getOwnedItems(@AuthenticationPrincipal UserAdapter user) {
-        return friendsSharingService.getOwnedItems(user.getUser());
+    public ResponseEntity<ItemsWithUser> getOwnedItems(@AuthenticationPrincipal UserAdapter user, WebRequest request) {
+        String etag = friendsSharingService.getUserItemsETag(user.getUser());
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+
+        return ResponseEntity.ok().eTag(etag).body(friendsSharingService.getOwnedItems(user.getUser()));
     }
 
     @Operation(summary = "Share a book with someone, authorization required",
@@ -122,6 +183,8 @@ public class FriendsSharingController {
                             value = "{\"author\":\"Joshua Bloch\",\"title\":\"Effective Java\"," +
                                     "\"person\":{\"name\":\"vlad\",\"email\":\"email@email.com\"}}")))
     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
+    @ApiResponse(responseCode = "409", description = "The book kept changing concurrently, try again", content = @Content)
     @ApiResponse(responseCode = "400",
             description = "There is no such user, or you specified a book that you do not own " +
                     "or have already given it to someone", content = @Content)
@@ -142,6 +205,8 @@ public class FriendsSharingController {
                             value = "{\"author\":\"Joshua Bloch\",\"title\":\"Effective Java\"," +
                                     "\"person\":{\"name\":\"vlad\",\"email\":\"email@email.com\"}}")))
     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
+    @ApiResponse(responseCode = "409", description = "The book kept changing concurrently, try again", content = @Content)
     @ApiResponse(responseCode = "400",
             description = "There is no such user, or you specified a book that you do not own " +
                     "or have already given it to someone", content = @Content)
@@ -152,6 +217,44 @@ public class FriendsSharingController {
         return friendsSharingService.giveBook(bookRequest, user.getUser());
     }
 
+    @Operation(summary = "Share several books in one go, authorization required",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200",
+            description = "Result for every requested book, in request order",
+            content = @Content(
+                    array = @ArraySchema(schema = @Schema(implementation = BookTransferDTO.class)),
+                    examples = @ExampleObject(
+                            value = "[{\"title\":\"Effective Java\",\"success\":true,\"book\":{\"author\":\"Joshua Bloch\"," +
+                                    "\"title\":\"Effective Java\",\"person\":{\"name\":\"vlad\",\"email\":\"email@email.com\"}}}," +
+                                    "{\"title\":\"Python\",\"success\":false," +
+                                    "\"error\":\"You do not own a book with that title!\"}]")))
+    @ApiResponse(responseCode = "400", description = "Empty or too big list of books", content = @Content)
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
+    @ApiResponse(responseCode = "409", description = "The book kept changing concurrently, try again", content = @Content)
+
+    @PostMapping("/book/share/batch")
+    public List<BookTransferDTO> shareBooks(@Valid @RequestBody GiveBooksRequest booksRequest,
+                                            @AuthenticationPrincipal UserAdapter user) {
+        return friendsSharingService.shareBooks(booksRequest, user.getUser());
+    }
+
+    @Operation(summary = "Give several books in one go, authorization required",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200",
+            description = "Result for every requested book, in request order",
+            content = @Content(array = @ArraySchema(schema = @Schema(implementation = BookTransferDTO.class))))
+    @ApiResponse(responseCode = "400", description = "Empty or too big list of books", content = @Content)
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
+    @ApiResponse(responseCode = "409", description = "The book kept changing concurrently, try again", content = @Content)
+
+    @PostMapping("/book/give/batch")
+    public List<BookTransferDTO> giveBooks(@Valid @RequestBody GiveBooksRequest booksRequest,
+                                           @AuthenticationPrincipal UserAdapter user) {
+        return friendsSharingService.giveBooks(booksRequest, user.getUser());
+    }
+
     /*@Operation(summary = "Give a present to someone, authorization required",
             security = @SecurityRequirement(name = "basicAuth"))
     @ApiResponse(responseCode = "200",
@@ -176,6 +279,7 @@ public class FriendsSharingController {
             security = @SecurityRequirement(name = "basicAuth"))
     @ApiResponse(responseCode = "200", description = "The book was returned", content = @Content())
     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
     @ApiResponse(responseCode = "400",
             description = "You do not hold a book with that title or you are the owner of this book", content = @Content)
 
@@ -186,8 +290,23 @@ public class FriendsSharingController {
         return "The book was returned";
     }
 
+    @Operation(summary = "Return several books in one go, authorization required",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200",
+            description = "Result for every requested book, in request order, person is the owner of the book",
+            content = @Content(array = @ArraySchema(schema = @Schema(implementation = BookTransferDTO.class))))
+    @ApiResponse(responseCode = "400", description = "Empty or too big list of books", content = @Content)
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
+
+    @PostMapping("/book/return/batch")
+    public List<BookTransferDTO> returnBooks(@Valid @RequestBody ReturnBooksRequest booksRequest,
+                                             @AuthenticationPrincipal UserAdapter user) {
+        return friendsSharingService.returnBooks(booksRequest, user.getUser());
+    }
+
     //@Operation(summary = "Get all items, ADMIN authority required",
-    @Operation(summary = "Get all books, ADMIN authority required",
+    @Operation(summary = "Get all books or a page of them after a cursor, ADMIN authority required",
             security = @SecurityRequirement(name = "basicAuth"))
     @ApiResponse(responseCode = "200",
             //description = "List of items",
@@ -199,12 +318,98 @@ public class FriendsSharingController {
                                     "\"title\":\"Effective Java\",\"holder_id\":1,\"owner_id\":1}]}")))/* +
                                     "\"presents\":[{\"id\":1,\"box_color\":\"red\",\"content\":\"books\"," +
                                     "\"holder_id\":1,\"owner_id\":1}]}")))*/
+    @ApiResponse(responseCode = "304", description = "Not modified since the ETag in If-None-Match", content = @Content)
+    @ApiResponse(responseCode = "400", description = "Wrong page size", content = @Content)
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "403", description = "Wrong authority", content = @Content)
+
+    @GetMapping("/items") //paged link looks like /items?after=100&limit=50
+    public ResponseEntity<?> getItems(@Parameter(description = "Return books with ID greater than this cursor")
+                                      @RequestParam(required = false) Long after,
+                                      @Parameter(description = "Page size, enables cursor mode")
+                                      @RequestParam(required = false) Integer limit,
+                                      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                                      String acceptEncoding,
+                                      WebRequest request) {
+        String etag = friendsSharingService.getItemsETag();
+        boolean catalog = after == null && limit == null;
+        boolean gzip = catalog && acceptsGzip(acceptEncoding);
+        if (request.checkNotModified(gzip ? gzipETag(etag) : etag)) {
+            return null;
+        }
+
+        if (catalog) {
+            return serializedItemsResponse(serializedItemsCache.get(), gzip);
+        }
+
+        return ResponseEntity.ok().eTag(etag).body(friendsSharingService.getItems(after, limit));
+    }
+
+    // the full catalog is served from bytes serialized once per change
+    private static ResponseEntity<byte[]> serializedItemsResponse(SerializedItemsCache.SerializedItems items,
+                                                                  boolean gzip) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        return gzip
+                ? response.eTag(gzipETag(items.etag())).header(HttpHeaders.CONTENT_ENCODING, "gzip").body(items.gzip())
+                : response.eTag(items.etag()).body(items.json());
+    }
+
+    // the compressed body is another representation, a strong tag may not be shared with the plain one
+    private static String gzipETag(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    // gzip;q=0 refuses it, and * only stands for gzip when gzip is not listed itself
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        double gzip = -1;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.regionMatches(true, 0, "q=", 0, 2)) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = Math.max(gzip, quality);
+            } else if (name.equals("*")) {
+                any = quality;
+            }
+        }
+        return (gzip >= 0 ? gzip : any) > 0;
+    }
+
+    @Operation(summary = "Export all books as newline-delimited JSON, ADMIN authority required",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200",
+            description = "One book per line",
+            content = @Content(
+                    mediaType = "application/x-ndjson",
+                    schema = @Schema(implementation = BookDTO.class),
+                    examples = @ExampleObject(
+                            value = "{\"book_id\":1,\"author\":\"Joshua Bloch\"," +
+                                    "\"title\":\"Effective Java\",\"holder_id\":1,\"owner_id\":1}")))
     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
     @ApiResponse(responseCode = "403", description = "Wrong authority", content = @Content)
 
-    @GetMapping("/items")
-    public Items getItems() {
-        return friendsSharingService.getItems();
+    @GetMapping(value = "/items/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportItems() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(friendsSharingService::exportBooks);
     }
 
     @Operation(summary = "Delete book, ADMIN authority required",
@@ -212,6 +417,7 @@ public class FriendsSharingController {
     @ApiResponse(responseCode = "200", description = "Book deleted", content = @Content)
     @ApiResponse(responseCode = "400", description = "Wrong id", content = @Content)
     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
     @ApiResponse(responseCode = "403", description = "Wrong authority", content = @Content)
 
     @DeleteMapping("/book/delete") //link looks like /book/delete?id=1
@@ -224,11 +430,26 @@ public class FriendsSharingController {
         return new ResponseEntity<>("Wrong id", HttpStatus.BAD_REQUEST);
     }
 
+    @Operation(summary = "Delete many books by ID, ADMIN authority required",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200", description = "Number of deleted books", content = @Content)
+    @ApiResponse(responseCode = "400", description = "No IDs provided", content = @Content)
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
+    @ApiResponse(responseCode = "403", description = "Wrong authority", content = @Content)
+
+    @DeleteMapping("/book/delete/batch")
+    public ResponseEntity<String> deleteBooks(@Valid @RequestBody DeleteBooksRequest booksRequest) {
+        return new ResponseEntity<>("Books deleted: " + friendsSharingService.deleteBooks(booksRequest),
+                HttpStatus.OK);
+    }
+
     @Operation(summary = "Force a return of a book, ADMIN authority required",
             security = @SecurityRequirement(name = "basicAuth"))
     @ApiResponse(responseCode = "200", description = "The book was returned", content = @Content())
     @ApiResponse(responseCode = "400", description = "Wrong id", content = @Content)
     @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "429", description = "Too many requests, see Retry-After", content = @Content)
     @ApiResponse(responseCode = "403", description = "Wrong authority", content = @Content)
 
     @PostMapping("/book/return/force")
@@ -241,6 +462,67 @@ public class FriendsSharingController {
         return new ResponseEntity<>("Wrong id", HttpStatus.BAD_REQUEST);
     }
 
+    @Operation(summary = "Get lending history of your books, newest first",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200",
+            description = "Books you got, returned or handed over",
+            content = @Content(
+                    array = @ArraySchema(schema = @Schema(implementation = LendingEventDTO.class)),
+                    examples = @ExampleObject(
+                            value = "[{\"book_id\":1,\"action\":\"SHARE\",\"from_user_id\":1,\"user_id\":2," +
+                                    "\"owner_id\":1,\"time\":\"2024-05-01T10:15:30.123456Z\"}]")))
+    @ApiResponse(responseCode = "400", description = "Wrong limit", content = @Content)
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+
+    @GetMapping("/history") //link looks like /history?limit=50
+    public List<LendingEventDTO> getHistory(@Parameter(description = "Number of events, 100 by default")
+                                            @RequestParam(required = false) Integer limit,
+                                            @AuthenticationPrincipal UserAdapter user) {
+        return friendsSharingService.getUserHistory(user.getUser().getUser_id(), limit);
+    }
+
+    @Operation(summary = "Get lending history of a book, newest first, ADMIN authority required",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200",
+            description = "Every change of the book's holder or owner",
+            content = @Content(
+                    array = @ArraySchema(schema = @Schema(implementation = LendingEventDTO.class)),
+                    examples = @ExampleObject(
+                            value = "[{\"book_id\":1,\"action\":\"SHARE\",\"from_user_id\":1,\"user_id\":2," +
+                                    "\"owner_id\":1,\"time\":\"2024-05-01T10:15:30.123456Z\"}]")))
+    @ApiResponse(responseCode = "400", description = "Wrong limit", content = @Content)
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "403", description = "Wrong authority", content = @Content)
+
+    @GetMapping("/history/book") //link looks like /history/book?id=1&limit=50
+    public List<LendingEventDTO> getBookHistory(@Parameter(description = "Book ID")
+                                                @RequestParam Long id,
+                                                @Parameter(description = "Number of events, 100 by default")
+                                                @RequestParam(required = false) Integer limit) {
+        return friendsSharingService.getBookHistory(id, limit);
+    }
+
+    @Operation(summary = "Get lending history of a user, newest first, ADMIN authority required",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @ApiResponse(responseCode = "200",
+            description = "Books the user got, returned or handed over",
+            content = @Content(
+                    array = @ArraySchema(schema = @Schema(implementation = LendingEventDTO.class)),
+                    examples = @ExampleObject(
+                            value = "[{\"book_id\":1,\"action\":\"SHARE\",\"from_user_id\":1,\"user_id\":2," +
+                                    "\"owner_id\":1,\"time\":\"2024-05-01T10:15:30.123456Z\"}]")))
+    @ApiResponse(responseCode = "400", description = "Wrong limit", content = @Content)
+    @ApiResponse(responseCode = "401", description = "Unauthorized", content = @Content)
+    @ApiResponse(responseCode = "403", description = "Wrong authority", content = @Content)
+
+    @GetMapping("/history/user") //link looks like /history/user?id=1&limit=50
+    public List<LendingEventDTO> getUserHistory(@Parameter(description = "User ID")
+                                                @RequestParam Long id,
+                                                @Parameter(description = "Number of events, 100 by default")
+                                                @RequestParam(required = false) Integer limit) {
+        return friendsSharingService.getUserHistory(id, limit);
+    }
+
     /*@Operation(summary = "Delete present, ADMIN authority required",
             security = @SecurityRequirement(name = "basicAuth"))
     @ApiResponse(responseCode = "200", description = "Present deleted", content = @Content)
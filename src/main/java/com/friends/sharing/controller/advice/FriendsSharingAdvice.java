@@ -1,8 +1,14 @@
 package com.friends.sharing.controller.advice;
 
 import com.friends.sharing.exception.ItemException;
+import com.friends.sharing.exception.ServiceBusyException;
 
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
@@ -26,4 +32,26 @@ public class FriendsSharingAdvice {
     public Map<String, String> handleCreateOrderException(ItemException exception) {
         return Map.of("error", exception.getMessage());
     }
+
+    @ExceptionHandler(ServiceBusyException.class)
+    public ResponseEntity<Map<String, String>> handleServiceBusyException(ServiceBusyException exception) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("error", exception.getMessage()));
+    }
+
+    // a transfer kept losing to concurrent changes of the same book, see TransferRetry
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public Map<String, String> handleOptimisticLockingFailure(OptimisticLockingFailureException exception) {
+        return Map.of("error", "The book is being changed by someone else, try again!");
+    }
+
+    // the connection pool stayed exhausted for the whole connection-timeout
+    @ExceptionHandler({CannotCreateTransactionException.class, CannotGetJdbcConnectionException.class})
+    public ResponseEntity<Map<String, String>> handleConnectionUnavailable(Exception exception) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("error", "The service is busy, try again later!"));
+    }
 }
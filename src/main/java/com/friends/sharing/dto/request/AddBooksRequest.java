@@ -0,0 +1,22 @@
+package com.friends.sharing.dto.request;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class AddBooksRequest {
+    @Valid
+    @NotEmpty(message = "Write down the books you want to add!")
+    @Size(max = 5000, message = "You can add at most 5000 books at once!")
+    private List<@NotNull(message = "A book to add is missing!") AddBookRequest> books;
+}
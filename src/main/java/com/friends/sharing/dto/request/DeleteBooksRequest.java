@@ -0,0 +1,20 @@
+package com.friends.sharing.dto.request;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DeleteBooksRequest {
+    @Schema(example = "[1, 2, 3]")
+    @NotEmpty(message = "Write down the IDs of the books you want to delete!")
+    private List<@NotNull(message = "A book ID is missing!") Long> ids;
+}
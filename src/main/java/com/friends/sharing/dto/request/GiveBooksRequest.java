@@ -0,0 +1,22 @@
+package com.friends.sharing.dto.request;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GiveBooksRequest {
+    @Valid
+    @NotEmpty(message = "Write down the books you want to give!")
+    @Size(max = 100, message = "You can give at most 100 books at once!")
+    private List<@NotNull(message = "A book to give is missing!") GiveBookRequest> books;
+}
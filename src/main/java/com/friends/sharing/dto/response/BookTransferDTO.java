@@ -0,0 +1,15 @@
+package com.friends.sharing.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+@Builder
+public class BookTransferDTO {
+    private String title;
+    private boolean success;
+    private BookWithUserDTO book;
+    private String error;
+}
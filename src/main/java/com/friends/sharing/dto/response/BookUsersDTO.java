@@ -0,0 +1,12 @@
+package com.friends.sharing.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BookUsersDTO {
+    private Long book_id;
+    private Long holder_id;
+    private Long owner_id;
+}
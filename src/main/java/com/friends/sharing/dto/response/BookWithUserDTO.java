@@ -1,8 +1,11 @@
 package com.friends.sharing.dto.response;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 
 @Data
 @AllArgsConstructor
@@ -11,4 +14,17 @@ public class BookWithUserDTO {
     private String author;
     private String title;
     private UserDTO person;
+    // only to merge the lists read from several shards, not part of the response
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private Long book_id;
+
+    public BookWithUserDTO(String author, String title, UserDTO person) {
+        this(author, title, person, null);
+    }
+
+    // used by JPQL constructor expressions, which cannot build the nested person themselves
+    public BookWithUserDTO(Long book_id, String author, String title, String name, String email) {
+        this(author, title, new UserDTO(name, email), book_id);
+    }
 }
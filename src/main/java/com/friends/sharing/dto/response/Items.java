@@ -12,4 +12,5 @@ import java.util.List;
 public class Items {
     private List<BookDTO> books;
     //private List<PresentDTO> presents;
+    private Long next_cursor;
 }
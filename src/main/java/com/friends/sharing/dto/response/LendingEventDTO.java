@@ -0,0 +1,21 @@
+package com.friends.sharing.dto.response;
+
+import com.friends.sharing.model.LendingAction;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+@Builder
+public class LendingEventDTO {
+    private Long book_id;
+    private LendingAction action;
+    private Long from_user_id;
+    private Long user_id;
+    private Long owner_id;
+    private Instant time;
+}
@@ -0,0 +1,14 @@
+package com.friends.sharing.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+@Builder
+public class TokenResponse {
+    private String access_token;
+    private String token_type;
+    private long expires_in;
+}
@@ -0,0 +1,7 @@
+package com.friends.sharing.exception;
+
+public class ServiceBusyException extends RuntimeException {
+public ServiceBusyException(String msg) {
+    super(msg);
+}
+}
@@ -3,8 +3,13 @@ package com.friends.sharing.model;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.util.Locale;
+
 @Entity
-@Table(name = "books")
+@Table(name = "books", indexes = {
+        @Index(name = "idx_books_holder_title", columnList = "holder_id, title_key"),
+        @Index(name = "idx_books_owner_title", columnList = "owner_id, title_key")
+})
 @Data
 @Builder
 @AllArgsConstructor
@@ -16,10 +21,31 @@ public class Book {
     private Long book_id;
     private String author;
     private String title;
-    @ManyToOne
+    // filled by the database, must stay in sync with titleKey()
+    @Column(insertable = false, updatable = false, columnDefinition = "varchar(255) GENERATED ALWAYS AS " +
+            "(lower(trim(regexp_replace(title, '[[:space:]]+', ' ')))) STORED")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private String title_key;
+    // lazy, kept out of equals/hashCode/toString so they never load a user or fail outside a session
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "holder_id")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     private User holder;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "owner_id")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     private User owner;
+    // bumped on every change, a transfer based on a stale read fails instead of overwriting
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0 not null")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private long version;
+
+    public static String titleKey(String title) {
+        return title.replaceAll("\\s+", " ").strip().toLowerCase(Locale.ROOT);
+    }
 }
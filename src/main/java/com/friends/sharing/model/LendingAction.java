@@ -0,0 +1,5 @@
+package com.friends.sharing.model;
+
+public enum LendingAction {
+    SHARE, GIVE, RETURN, FORCE_RETURN
+}
@@ -0,0 +1,31 @@
+package com.friends.sharing.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+// One change of a book's holder or owner. Plain ids instead of relations, the history outlives deleted books.
+@Entity
+@Table(name = "lending_history", indexes = {
+        @Index(name = "idx_lending_history_book_time", columnList = "book_id, time"),
+        @Index(name = "idx_lending_history_user_time", columnList = "user_id, time"),
+        @Index(name = "idx_lending_history_from_user_time", columnList = "from_user_id, time")
+})
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class LendingEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long event_id;
+    private Long book_id;
+    @Enumerated(EnumType.STRING)
+    private LendingAction action;
+    private Long from_user_id; //holder before
+    private Long user_id; //holder after
+    private Long owner_id; //owner after
+    @Column(columnDefinition = "datetime(6)")
+    private Instant time;
+}
@@ -4,7 +4,10 @@ import jakarta.persistence.*;
 import lombok.*;
 
 @Entity
-@Table(name = "presents")
+@Table(name = "presents", indexes = {
+        @Index(name = "idx_presents_holder", columnList = "holder_id"),
+        @Index(name = "idx_presents_owner", columnList = "owner_id")
+})
 @Data
 @Builder
 @AllArgsConstructor
@@ -16,10 +19,14 @@ public class Present {
     private Long present_id;
     private String box_color;
     private String content;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "holder_id")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     private User holder;
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "owner_id")
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     private User owner;
 }
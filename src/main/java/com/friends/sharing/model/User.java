@@ -7,7 +7,7 @@ import jakarta.persistence.Table;
 import lombok.*;
 
 @Entity
-@Table(name = "user")
+@Table(name = "user", uniqueConstraints = @UniqueConstraint(name = "uk_user_email", columnNames = "email"))
 @Data
 @Builder
 @AllArgsConstructor
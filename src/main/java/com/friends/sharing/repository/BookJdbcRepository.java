@@ -0,0 +1,59 @@
+package com.friends.sharing.repository;
+
+import com.friends.sharing.dto.response.BookDTO;
+import com.friends.sharing.model.Book;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.function.Consumer;
+
+@Repository
+public class BookJdbcRepository {
+    private final JdbcTemplate jdbcTemplate;
+    private final JdbcTemplate cursorTemplate;
+    private final int insertBatchSize;
+
+    public BookJdbcRepository(JdbcTemplate jdbcTemplate,
+                              @Value("${friends-sharing.books.insert-batch-size:500}") int insertBatchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        // separate template, so only the export streams its rows one by one (Connector/J's Integer.MIN_VALUE);
+        // a cursor fetch on the URL would turn every other statement into an uncached server-side prepare
+        this.cursorTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.cursorTemplate.setFetchSize(Integer.MIN_VALUE);
+        this.insertBatchSize = insertBatchSize;
+    }
+
+    public void insertBooks(List<Book> books) {
+        // a null id is generated by the column, sharded books come with one (see BookShards.assignBookIds)
+        jdbcTemplate.batchUpdate("INSERT INTO books(book_id, author, title, holder_id, owner_id) VALUES (?, ?, ?, ?, ?)",
+                books, insertBatchSize, (ps, book) -> {
+                    ps.setObject(1, book.getBook_id(), Types.BIGINT);
+                    ps.setString(2, book.getAuthor());
+                    ps.setString(3, book.getTitle());
+                    ps.setLong(4, book.getHolder().getUser_id());
+                    ps.setLong(5, book.getOwner().getUser_id());
+                });
+    }
+
+    public void forEachBook(Consumer<BookDTO> action) {
+        cursorTemplate.query("SELECT book_id, author, title, holder_id, owner_id FROM books ORDER BY book_id",
+                (RowCallbackHandler) rs -> action.accept(mapToBookDTO(rs)));
+    }
+
+    private static BookDTO mapToBookDTO(ResultSet rs) throws SQLException {
+        return BookDTO.builder()
+                .book_id(rs.getLong("book_id"))
+                .author(rs.getString("author"))
+                .title(rs.getString("title"))
+                .holder_id(rs.getObject("holder_id", Long.class))
+                .owner_id(rs.getObject("owner_id", Long.class))
+                .build();
+    }
+}
@@ -1,24 +1,89 @@
 package com.friends.sharing.repository;
 
+import com.friends.sharing.dto.response.BookDTO;
+import com.friends.sharing.dto.response.BookUsersDTO;
+import com.friends.sharing.dto.response.BookWithUserDTO;
 import com.friends.sharing.model.Book;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface BookRepository extends JpaRepository<Book,Long> {
-    default List<Book> findHeldBooks(Long id) {
-        return findAll().stream()
-                .filter(book -> id.equals(book.getHolder().getUser_id()))
-                .toList();
+    @Query("SELECT b FROM Book b WHERE b.holder.user_id = :id ORDER BY b.book_id")
+    @EntityGraph(attributePaths = {"holder", "owner"})
+    List<Book> findHeldBooks(@Param("id") Long id);
+
+    @Query("SELECT b FROM Book b WHERE b.owner.user_id = :id ORDER BY b.book_id")
+    @EntityGraph(attributePaths = {"holder", "owner"})
+    List<Book> findOwnedBooks(@Param("id") Long id);
+
+    // copies still at home come first, so a lent duplicate never hides an available one
+    @Query("SELECT b FROM Book b WHERE b.owner.user_id = :id AND b.title_key = :titleKey " +
+            "ORDER BY CASE WHEN b.holder = b.owner THEN 0 ELSE 1 END, b.book_id")
+    @EntityGraph(attributePaths = {"holder", "owner"})
+    List<Book> findOwnedBooksByTitleKey(@Param("id") Long id, @Param("titleKey") String titleKey, Limit limit);
+
+    // borrowed copies come first, so holding your own copy never hides one you have to return
+    @Query("SELECT new com.friends.sharing.dto.response.BookUsersDTO(b.book_id, b.holder.user_id, b.owner.user_id) " +
+            "FROM Book b WHERE b.holder.user_id = :id AND b.title_key = :titleKey " +
+            "ORDER BY CASE WHEN b.holder = b.owner THEN 1 ELSE 0 END, b.book_id")
+    List<BookUsersDTO> findHeldBookUsersByTitleKey(@Param("id") Long id, @Param("titleKey") String titleKey, Limit limit);
+
+    @Query("SELECT b FROM Book b WHERE b.owner.user_id = :id AND b.title_key IN :titleKeys " +
+            "ORDER BY CASE WHEN b.holder = b.owner THEN 0 ELSE 1 END, b.book_id")
+    @EntityGraph(attributePaths = {"holder", "owner"})
+    List<Book> findOwnedBooksByTitleKeys(@Param("id") Long id, @Param("titleKeys") Collection<String> titleKeys);
+
+    @Query("SELECT b FROM Book b WHERE b.holder.user_id = :id AND b.title_key IN :titleKeys " +
+            "ORDER BY CASE WHEN b.holder = b.owner THEN 1 ELSE 0 END, b.book_id")
+    @EntityGraph(attributePaths = {"holder", "owner"})
+    List<Book> findHeldBooksByTitleKeys(@Param("id") Long id, @Param("titleKeys") Collection<String> titleKeys);
+
+    default Optional<Book> findOwnedBookByTitle(Long id, String title) {
+        return findOwnedBooksByTitleKey(id, Book.titleKey(title), Limit.of(1)).stream().findFirst();
     }
 
-    default List<Book> findOwnedBooks(Long id) {
-        return findAll().stream()
-                .filter(book -> id.equals(book.getOwner().getUser_id()))
-                .toList();
+    default Optional<BookUsersDTO> findHeldBookUsersByTitle(Long id, String title) {
+        return findHeldBookUsersByTitleKey(id, Book.titleKey(title), Limit.of(1)).stream().findFirst();
     }
+
+    @Query("SELECT new com.friends.sharing.dto.response.BookUsersDTO(b.book_id, b.holder.user_id, b.owner.user_id) " +
+            "FROM Book b WHERE b.book_id = :id")
+    Optional<BookUsersDTO> findBookUsers(@Param("id") Long id);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM Book b WHERE b.book_id IN :ids")
+    int deleteBooksByIds(@Param("ids") Collection<Long> ids);
+
+    // only matches while the book is still borrowed by that holder
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Book b SET b.holder = b.owner, b.version = b.version + 1 " +
+            "WHERE b.book_id = :id AND b.holder.user_id = :holderId AND b.owner.user_id <> :holderId")
+    int returnBookFromHolder(@Param("id") Long id, @Param("holderId") Long holderId);
+
+    @Query("SELECT new com.friends.sharing.dto.response.BookWithUserDTO(b.book_id, b.author, b.title, o.name, o.email) " +
+            "FROM Book b JOIN b.owner o WHERE b.holder.user_id = :id ORDER BY b.book_id")
+    List<BookWithUserDTO> findHeldBookDTOs(@Param("id") Long id);
+
+    @Query("SELECT new com.friends.sharing.dto.response.BookWithUserDTO(b.book_id, b.author, b.title, h.name, h.email) " +
+            "FROM Book b JOIN b.holder h WHERE b.owner.user_id = :id ORDER BY b.book_id")
+    List<BookWithUserDTO> findOwnedBookDTOs(@Param("id") Long id);
+
+    @Query("SELECT new com.friends.sharing.dto.response.BookDTO(b.book_id, b.author, b.title, " +
+            "b.holder.user_id, b.owner.user_id) FROM Book b ORDER BY b.book_id")
+    List<BookDTO> findAllBookDTOs();
+
+    @Query("SELECT new com.friends.sharing.dto.response.BookDTO(b.book_id, b.author, b.title, " +
+            "b.holder.user_id, b.owner.user_id) FROM Book b WHERE b.book_id > :after ORDER BY b.book_id")
+    List<BookDTO> findBookDTOsAfter(@Param("after") Long after, Limit limit);
 }
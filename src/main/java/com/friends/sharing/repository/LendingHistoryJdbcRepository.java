@@ -0,0 +1,32 @@
+package com.friends.sharing.repository;
+
+import com.friends.sharing.model.LendingEvent;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+@Repository
+public class LendingHistoryJdbcRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public LendingHistoryJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void insertEvents(List<LendingEvent> events) {
+        jdbcTemplate.batchUpdate("INSERT INTO lending_history(book_id, action, from_user_id, user_id, owner_id, time) " +
+                        "VALUES (?, ?, ?, ?, ?, ?)",
+                events, events.size(), (ps, event) -> {
+                    ps.setLong(1, event.getBook_id());
+                    ps.setString(2, event.getAction().name());
+                    ps.setObject(3, event.getFrom_user_id(), Types.BIGINT);
+                    ps.setObject(4, event.getUser_id(), Types.BIGINT);
+                    ps.setObject(5, event.getOwner_id(), Types.BIGINT);
+                    ps.setTimestamp(6, Timestamp.from(event.getTime()));
+                });
+    }
+}
@@ -0,0 +1,28 @@
+package com.friends.sharing.repository;
+
+import com.friends.sharing.dto.response.LendingEventDTO;
+import com.friends.sharing.model.LendingEvent;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface LendingHistoryRepository extends JpaRepository<LendingEvent, Long> {
+    @Query("SELECT new com.friends.sharing.dto.response.LendingEventDTO(e.book_id, e.action, e.from_user_id, " +
+            "e.user_id, e.owner_id, e.time) FROM LendingEvent e WHERE e.book_id = :id ORDER BY e.time DESC")
+    List<LendingEventDTO> findBookHistory(@Param("id") Long id, Limit limit);
+
+    // a user's history is both sides of a transfer, each read from its own (user, time) index
+    @Query("SELECT new com.friends.sharing.dto.response.LendingEventDTO(e.book_id, e.action, e.from_user_id, " +
+            "e.user_id, e.owner_id, e.time) FROM LendingEvent e WHERE e.user_id = :id ORDER BY e.time DESC")
+    List<LendingEventDTO> findReceivedHistory(@Param("id") Long id, Limit limit);
+
+    @Query("SELECT new com.friends.sharing.dto.response.LendingEventDTO(e.book_id, e.action, e.from_user_id, " +
+            "e.user_id, e.owner_id, e.time) FROM LendingEvent e WHERE e.from_user_id = :id AND e.user_id <> :id ORDER BY e.time DESC")
+    List<LendingEventDTO> findHandedOverHistory(@Param("id") Long id, Limit limit);
+}
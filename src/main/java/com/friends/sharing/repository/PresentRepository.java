@@ -2,23 +2,21 @@ package com.friends.sharing.repository;
 
 import com.friends.sharing.model.Present;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
-import java.util.Optional;
 
 @Repository
 public interface PresentRepository extends JpaRepository<Present,Long> {
-    default List<Present> findHeldPresents(Long id) {
-        return findAll().stream()
-                .filter(present -> id.equals(present.getHolder().getUser_id()))
-                .toList();
-    }
+    @Query("SELECT p FROM Present p WHERE p.holder.user_id = :id ORDER BY p.present_id")
+    @EntityGraph(attributePaths = {"holder", "owner"})
+    List<Present> findHeldPresents(@Param("id") Long id);
 
-    default List<Present> findOwnedPresents(Long id) {
-        return findAll().stream()
-                .filter(present -> id.equals(present.getOwner().getUser_id()))
-                .toList();
-    }
+    @Query("SELECT p FROM Present p WHERE p.owner.user_id = :id ORDER BY p.present_id")
+    @EntityGraph(attributePaths = {"holder", "owner"})
+    List<Present> findOwnedPresents(@Param("id") Long id);
 }
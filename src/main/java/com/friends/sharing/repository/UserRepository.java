@@ -1,14 +1,39 @@
 package com.friends.sharing.repository;
 
+import com.friends.sharing.configuration.CacheConfig;
 import com.friends.sharing.model.User;
 
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User,Long>
 {
+    // only hits are cached, so unknown emails can't push real users out
+    @Cacheable(cacheNames = CacheConfig.USERS_BY_EMAIL, unless = "#result == null")
     Optional<User> findUserByEmail(String email);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.USERS_BY_EMAIL, key = "#p0.email")
+    <S extends User> S save(S entity);
+
+    List<User> findUsersByEmailIn(Collection<String> emails);
+
+    @Query("SELECT u.user_id AS user_id, u.email AS email FROM User u WHERE u.user_id > :after ORDER BY u.user_id")
+    List<UserEmail> findEmailsAfter(@Param("after") Long after, Limit limit);
+
+    interface UserEmail {
+        Long getUser_id();
+
+        String getEmail();
+    }
 }
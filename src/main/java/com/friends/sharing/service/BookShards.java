@@ -0,0 +1,436 @@
+package com.friends.sharing.service;
+
+import com.friends.sharing.configuration.ShardRoutingDataSource;
+import com.friends.sharing.configuration.StatementCounter;
+import com.friends.sharing.model.Book;
+import com.friends.sharing.model.User;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Books live on the shard of their owner, users are copied to every shard so book queries can still join them.
+// Without sharding there is one shard and every method just runs its action in the caller's transaction.
+@Slf4j
+@Component
+public class BookShards implements DisposableBean {
+    private static final int MOVE_ATTEMPTS = 3;
+    private static final int COPY_BATCH_SIZE = 1000;
+
+    private final int shardCount;
+    private final List<JdbcTemplate> shards;
+    private final TransactionTemplate readTransaction;
+    private final TransactionTemplate writeTransaction;
+    private final ExecutorService fanOutExecutor;
+    private final StatementCounter statementCounter;
+    private final JdbcTemplate jdbcTemplate;
+    private final Set<Long> pendingOwners = ConcurrentHashMap.newKeySet();
+    private final int idBlockSize;
+    private final ReentrantLock idLock = new ReentrantLock();
+    private long nextBookId;
+    private long bookIdLimit;
+
+    public BookShards(Optional<ShardRoutingDataSource> shardRoutingDataSource,
+                      JdbcTemplate jdbcTemplate,
+                      PlatformTransactionManager transactionManager,
+                      StatementCounter statementCounter,
+                      @Value("${friends-sharing.sharding.fan-out-threads:16}") int fanOutThreads,
+                      @Value("${friends-sharing.sharding.id-block-size:100}") int idBlockSize) {
+        this.shardCount = shardRoutingDataSource.map(ShardRoutingDataSource::getShardCount).orElse(1);
+        this.shards = shardRoutingDataSource
+                .map(routing -> IntStream.range(0, shardCount)
+                        .mapToObj(shard -> new JdbcTemplate(routing.getShard(shard)))
+                        .toList())
+                .orElse(List.of());
+        // a shard's work must not join a transaction that may already be bound to another shard
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.readTransaction.setReadOnly(true);
+        this.writeTransaction = new TransactionTemplate(transactionManager);
+        this.writeTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.fanOutExecutor = isSharded()
+                ? Executors.newFixedThreadPool(fanOutThreads, new CustomizableThreadFactory("shard-"))
+                : null;
+        this.statementCounter = statementCounter;
+        this.jdbcTemplate = jdbcTemplate;
+        this.idBlockSize = idBlockSize;
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    // murmur3 finalizer, so consecutive owner ids spread evenly
+    public int shardOf(Long ownerId) {
+        if (!isSharded()) {
+            return 0;
+        }
+        long hash = ownerId;
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) Math.floorMod(hash, (long) shardCount);
+    }
+
+    // ids come in blocks from the one sequence on shard 0, so no two shards ever hand out the same id;
+    // without sharding the column generates them
+    public void assignBookIds(List<Book> books) {
+        if (!isSharded()) {
+            return;
+        }
+
+        idLock.lock();
+        try {
+            for (int i = 0; i < books.size(); i++) {
+                if (nextBookId == bookIdLimit) {
+                    allocateBookIds(Math.max(idBlockSize, books.size() - i));
+                }
+                books.get(i).setBook_id(nextBookId++);
+            }
+        } finally {
+            idLock.unlock();
+        }
+    }
+
+    // the caller's transaction takes this shard, if the action runs its first statement
+    public <T> T onShard(int shard, Supplier<T> action) {
+        return isSharded() ? ShardRoutingDataSource.onShard(shard, action) : action.get();
+    }
+
+    public void onShard(int shard, Runnable action) {
+        onShard(shard, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // all shards in parallel, each in its own read-only transaction; the results are in shard order
+    public <T> List<T> queryEachShard(Supplier<T> query) {
+        if (!isSharded()) {
+            return Collections.singletonList(query.get());
+        }
+
+        List<CompletableFuture<T>> results = IntStream.range(0, shardCount)
+                .mapToObj(shard -> CompletableFuture.supplyAsync(() -> ShardRoutingDataSource.onShard(shard,
+                        () -> readTransaction.execute(status -> query.get())), fanOut()))
+                .toList();
+        try {
+            return results.stream().map(CompletableFuture::join).toList();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // one shard after another, each in its own transaction
+    public <T> List<T> updateEachShard(Supplier<T> update) {
+        if (!isSharded()) {
+            return Collections.singletonList(update.get());
+        }
+        return IntStream.range(0, shardCount).mapToObj(shard -> inTransaction(shard, update)).toList();
+    }
+
+    public <T> T inTransaction(int shard, Supplier<T> action) {
+        if (!isSharded()) {
+            return action.get();
+        }
+        return ShardRoutingDataSource.onShard(shard, () -> writeTransaction.execute(status -> action.get()));
+    }
+
+    // books given to owners on other shards follow them once the transfer is committed; the pending move is
+    // written to book_moves in the same transaction, so a move that fails after the commit is retried by
+    // retryMoves() and the new owner's reads cover every shard until it is done
+    public void moveAfterCommit(int from, Map<Long, Long> newOwners) {
+        if (!isSharded()) {
+            return;
+        }
+        Map<Long, Long> moving = newOwners.entrySet().stream()
+                .filter(entry -> shardOf(entry.getValue()) != from)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (moving.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.batchUpdate("INSERT INTO book_moves(book_id, owner_id) VALUES (?, ?) " +
+                        "ON DUPLICATE KEY UPDATE owner_id = VALUES(owner_id)",
+                moving.entrySet().stream().map(entry -> new Object[]{entry.getKey(), entry.getValue()}).toList());
+        Runnable move = () -> {
+            pendingOwners.addAll(moving.values());
+            moving.entrySet().stream()
+                    .collect(Collectors.groupingBy(entry -> shardOf(entry.getValue()),
+                            Collectors.mapping(Map.Entry::getKey, Collectors.toList())))
+                    .forEach((to, ids) -> moveBooks(ids, from, to));
+            if (!hasPendingMoves(from, moving.values())) {
+                pendingOwners.removeAll(moving.values());
+            }
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            move.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                move.run();
+            }
+        });
+    }
+
+    // copied first and deleted from the source only if unchanged meanwhile, so a book is never lost;
+    // one left behind is still found by the reads over all shards and moved again by retryMoves()
+    public void moveBooks(List<Long> bookIds, int from, int to) {
+        try {
+            List<Long> pending = bookIds;
+            for (int attempt = 1; attempt <= MOVE_ATTEMPTS && !pending.isEmpty(); attempt++) {
+                pending = copyAndDelete(pending, from, to);
+            }
+            if (!pending.isEmpty()) {
+                log.warn("Books {} kept changing, left on shard {} instead of {}", pending, from, to);
+            }
+            // only the books that are gone from the source are done
+            new NamedParameterJdbcTemplate(shards.get(from)).update("DELETE FROM book_moves WHERE book_id IN (:ids) " +
+                    "AND NOT EXISTS (SELECT * FROM books b WHERE b.book_id = book_moves.book_id)", Map.of("ids", bookIds));
+        } catch (DataAccessException e) {
+            log.error("Could not move books {} from shard {} to {}", bookIds, from, to, e);
+        }
+    }
+
+    public boolean isMovePending(Long ownerId) {
+        return isSharded() && pendingOwners.contains(ownerId);
+    }
+
+    // the owner's books still waiting on other shards are moved before the owner works on their own shard
+    public void settleMoves(Long ownerId) {
+        if (!isMovePending(ownerId)) {
+            return;
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            retryMoves(shard, "WHERE m.owner_id = ?", ownerId);
+        }
+        if (IntStream.range(0, shardCount).noneMatch(shard -> hasPendingMoves(shard, List.of(ownerId)))) {
+            pendingOwners.remove(ownerId);
+        }
+    }
+
+    // also picks up the pending moves of other instances, so their owners are known here as well
+    @Scheduled(fixedDelayString = "${friends-sharing.sharding.move-retry-millis:10000}")
+    public void retryMoves() {
+        if (!isSharded()) {
+            return;
+        }
+        Set<Long> owners = new HashSet<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            retryMoves(shard, "");
+            owners.addAll(shards.get(shard).queryForList("SELECT DISTINCT owner_id FROM book_moves", Long.class));
+        }
+        pendingOwners.addAll(owners);
+        pendingOwners.retainAll(owners);
+    }
+
+    // users, not copied on registration because of an outage, and misplaced books are fixed at startup;
+    // the rebalance also moves books after the number of shards changed
+    @EventListener(ApplicationReadyEvent.class)
+    public void synchronize() {
+        if (isSharded()) {
+            copyUsers();
+            retryMoves();
+            rebalance();
+        }
+    }
+
+    public void copyUser(User user) {
+        for (int shard = 1; shard < shardCount; shard++) {
+            try {
+                shards.get(shard).update("INSERT IGNORE INTO user(user_id, name, email, password, authority) " +
+                                "VALUES (?, ?, ?, ?, ?)", user.getUser_id(), user.getName(), user.getEmail(),
+                        user.getPassword(), user.getAuthority() == null ? null : user.getAuthority().ordinal());
+            } catch (DataAccessException e) {
+                log.warn("Could not copy user {} to shard {}, it is copied at the next startup", user.getUser_id(), shard, e);
+            }
+        }
+    }
+
+    public void copyUsers() {
+        for (int shard = 1; shard < shardCount; shard++) {
+            JdbcTemplate target = shards.get(shard);
+            long after = Objects.requireNonNullElse(
+                    target.queryForObject("SELECT MAX(user_id) FROM user", Long.class), 0L);
+            List<Object[]> users;
+            do {
+                users = shards.get(0).query("SELECT user_id, name, email, password, authority FROM user " +
+                                "WHERE user_id > ? ORDER BY user_id LIMIT ?",
+                        (rs, row) -> new Object[]{rs.getLong("user_id"), rs.getString("name"), rs.getString("email"),
+                                rs.getString("password"), rs.getObject("authority")},
+                        after, COPY_BATCH_SIZE);
+                target.batchUpdate("INSERT IGNORE INTO user(user_id, name, email, password, authority) " +
+                        "VALUES (?, ?, ?, ?, ?)", users);
+                after = users.isEmpty() ? after : (Long) users.get(users.size() - 1)[0];
+            } while (users.size() == COPY_BATCH_SIZE);
+        }
+    }
+
+    public void rebalance() {
+        for (int shard = 0; shard < shardCount; shard++) {
+            int source = shard;
+            Map<Integer, List<Long>> misplaced = new HashMap<>();
+            shards.get(source).query("SELECT book_id, owner_id FROM books", (RowCallbackHandler) rs -> {
+                int target = shardOf(rs.getLong("owner_id"));
+                if (target != source) {
+                    misplaced.computeIfAbsent(target, key -> new ArrayList<>()).add(rs.getLong("book_id"));
+                }
+            });
+            misplaced.forEach((target, ids) -> {
+                log.info("Moving {} books from shard {} to shard {}", ids.size(), source, target);
+                for (int from = 0; from < ids.size(); from += COPY_BATCH_SIZE) {
+                    moveBooks(ids.subList(from, Math.min(from + COPY_BATCH_SIZE, ids.size())), source, target);
+                }
+            });
+        }
+    }
+
+    public JdbcTemplate getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    @Override
+    public void destroy() {
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdown();
+        }
+    }
+
+    // the target is the shard of the book's owner now, it may have been given on again since the move was recorded
+    private void retryMoves(int source, String condition, Object... args) {
+        Map<Integer, List<Long>> moves = new HashMap<>();
+        List<Long> done = new ArrayList<>();
+        shards.get(source).query("SELECT m.book_id, b.owner_id FROM book_moves m " +
+                "LEFT JOIN books b ON b.book_id = m.book_id " + condition, (RowCallbackHandler) rs -> {
+            long ownerId = rs.getLong("owner_id");
+            int target = rs.wasNull() ? source : shardOf(ownerId);
+            if (target == source) {
+                done.add(rs.getLong("book_id"));
+            } else {
+                moves.computeIfAbsent(target, key -> new ArrayList<>()).add(rs.getLong("book_id"));
+            }
+        }, args);
+        moves.forEach((target, ids) -> {
+            log.info("Retrying the move of {} books from shard {} to shard {}", ids.size(), source, target);
+            for (int from = 0; from < ids.size(); from += COPY_BATCH_SIZE) {
+                moveBooks(ids.subList(from, Math.min(from + COPY_BATCH_SIZE, ids.size())), source, target);
+            }
+        });
+        if (!done.isEmpty()) {
+            new NamedParameterJdbcTemplate(shards.get(source))
+                    .update("DELETE FROM book_moves WHERE book_id IN (:ids)", Map.of("ids", done));
+        }
+    }
+
+    private boolean hasPendingMoves(int shard, Collection<Long> ownerIds) {
+        return Boolean.TRUE.equals(new NamedParameterJdbcTemplate(shards.get(shard)).queryForObject(
+                "SELECT EXISTS (SELECT * FROM book_moves WHERE owner_id IN (:owners))",
+                Map.of("owners", ownerIds), Boolean.class));
+    }
+
+    // the shard queries count towards the request's statements
+    private Executor fanOut() {
+        return task -> fanOutExecutor.execute(statementCounter.decorate(task));
+    }
+
+    // the sequence row is locked by the update and LAST_INSERT_ID() is per connection, so blocks never overlap
+    private void allocateBookIds(int count) {
+        long limit = shards.get(0).execute((ConnectionCallback<Long>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("UPDATE book_id_sequence SET next_val = LAST_INSERT_ID(next_val + " + count + ")");
+                try (ResultSet rs = statement.executeQuery("SELECT LAST_INSERT_ID()")) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            }
+        });
+        nextBookId = limit - count;
+        bookIdLimit = limit;
+    }
+
+    // returns the books that changed between the copy and the delete, their copies are removed again
+    private List<Long> copyAndDelete(List<Long> bookIds, int from, int to) {
+        JdbcTemplate source = shards.get(from);
+        JdbcTemplate target = shards.get(to);
+        List<Object[]> books = selectBooks(source, bookIds);
+        if (books.isEmpty()) {
+            return List.of();
+        }
+
+        // ids are unique over all shards, so an equal row on the target is the copy of an interrupted move;
+        // a different one means something is broken, it is reported and left alone instead of overwritten
+        Map<Object, Object[]> copies = new HashMap<>();
+        selectBooks(target, bookIds).forEach(copy -> copies.put(copy[0], copy));
+        List<Object[]> moving = new ArrayList<>();
+        List<Object[]> missing = new ArrayList<>();
+        for (Object[] book : books) {
+            Object[] copy = copies.get(book[0]);
+            if (copy != null && !Arrays.equals(copy, book)) {
+                log.error("Book {} is on shard {} and, differently, on shard {}, not moved", book[0], from, to);
+                continue;
+            }
+            moving.add(book);
+            if (copy == null) {
+                missing.add(book);
+            }
+        }
+        target.batchUpdate("INSERT INTO books(book_id, author, title, holder_id, owner_id, version) " +
+                "VALUES (?, ?, ?, ?, ?, ?)", missing);
+
+        List<Long> changed = new ArrayList<>();
+        for (Object[] book : moving) {
+            if (source.update("DELETE FROM books WHERE book_id = ? AND version = ?", book[0], book[5]) == 0) {
+                target.update("DELETE FROM books WHERE book_id = ? AND version = ?", book[0], book[5]);
+                changed.add((Long) book[0]);
+            }
+        }
+        return changed;
+    }
+
+    private static List<Object[]> selectBooks(JdbcTemplate shard, List<Long> bookIds) {
+        return new NamedParameterJdbcTemplate(shard).query(
+                "SELECT book_id, author, title, holder_id, owner_id, version FROM books WHERE book_id IN (:ids)",
+                Map.of("ids", bookIds),
+                (rs, row) -> new Object[]{rs.getLong("book_id"), rs.getString("author"), rs.getString("title"),
+                        rs.getLong("holder_id"), rs.getLong("owner_id"), rs.getLong("version")});
+    }
+}
@@ -0,0 +1,188 @@
+package com.friends.sharing.service;
+
+import com.friends.sharing.repository.UserRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Registered emails, so unknown usernames can be answered without looking the user up.
+// Never gives false negatives for users it has seen; users registered through another instance
+// are picked up by a cheap incremental refresh, at most once per refresh interval,
+// or right away by mightContainNow.
+@Slf4j
+@Component
+public class EmailBloomFilter {
+    private static final int REFRESH_BATCH_SIZE = 10_000;
+
+    private final UserRepository userRepository;
+    private final int expectedUsers;
+    private final double falsePositiveRate;
+    private final long refreshNanos;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile Bits bits;
+    private volatile Set<String> putsDuringRebuild;
+    private volatile long lastUserId;
+    private volatile long lastRefresh;
+
+    private record Bits(AtomicLongArray words, int size, int hashes) {
+    }
+
+    public EmailBloomFilter(UserRepository userRepository,
+                            @Value("${friends-sharing.auth.bloom.expected-users:100000}") int expectedUsers,
+                            @Value("${friends-sharing.auth.bloom.false-positive-rate:0.01}") double falsePositiveRate,
+                            @Value("${friends-sharing.auth.bloom.refresh-seconds:30}") long refreshSeconds) {
+        this.userRepository = userRepository;
+        this.expectedUsers = expectedUsers;
+        this.falsePositiveRate = falsePositiveRate;
+        this.refreshNanos = refreshSeconds * 1_000_000_000L;
+        this.bits = allocate(expectedUsers);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        Bits fresh;
+        refreshLock.lock();
+        try {
+            // filled aside and published whole, lookups keep answering from the old bits meanwhile
+            Set<String> recent = ConcurrentHashMap.newKeySet();
+            putsDuringRebuild = recent;
+            fresh = allocate(Math.max(expectedUsers, (int) Math.min(Integer.MAX_VALUE / 2, userRepository.count() * 2)));
+            lastUserId = 0;
+            refresh(fresh);
+            bits = fresh;
+            putsDuringRebuild = null;
+            // registered while the users were read, so possibly missing from them
+            recent.forEach(email -> set(fresh, email));
+        } finally {
+            refreshLock.unlock();
+        }
+        log.info("Email filter built, {} bits, {} hashes", fresh.size(), fresh.hashes());
+    }
+
+    public boolean mightContain(String email) {
+        if (contains(bits, email)) {
+            return true;
+        }
+        if (System.nanoTime() - lastRefresh < refreshNanos) {
+            return false;
+        }
+
+        refreshIfDue();
+        return contains(bits, email);
+    }
+
+    // a miss is only trusted after a refresh started after it, so sign-ins of users registered
+    // on another instance a moment ago are not rejected; concurrent misses share one refresh
+    public boolean mightContainNow(String email) {
+        long missed = System.nanoTime();
+        if (contains(bits, email)) {
+            return true;
+        }
+
+        refreshLock.lock();
+        try {
+            if (lastRefresh - missed < 0) {
+                refresh(bits);
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+        return contains(bits, email);
+    }
+
+    public void put(String email) {
+        Set<String> recent = putsDuringRebuild;
+        if (recent != null) {
+            recent.add(email);
+        }
+        // set again when a rebuild published new bits meanwhile
+        Bits current;
+        do {
+            current = bits;
+            set(current, email);
+        } while (current != bits);
+    }
+
+    private void refreshIfDue() {
+        refreshLock.lock();
+        try {
+            if (System.nanoTime() - lastRefresh >= refreshNanos) {
+                refresh(bits);
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    // only users added since the last refresh are read, in primary key order
+    private void refresh(Bits target) {
+        long started = System.nanoTime();
+        List<UserRepository.UserEmail> users;
+        do {
+            users = userRepository.findEmailsAfter(lastUserId, Limit.of(REFRESH_BATCH_SIZE));
+            users.forEach(user -> set(target, user.getEmail()));
+            if (!users.isEmpty()) {
+                lastUserId = users.get(users.size() - 1).getUser_id();
+            }
+        } while (users.size() == REFRESH_BATCH_SIZE);
+        lastRefresh = started;
+    }
+
+    private Bits allocate(int users) {
+        int size = (int) Math.max(64, Math.min(Integer.MAX_VALUE - 63,
+                Math.ceil(-users * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)))));
+        int hashes = Math.max(1, (int) Math.round((double) size / users * Math.log(2)));
+        return new Bits(new AtomicLongArray((size + 63) / 64), size, hashes);
+    }
+
+    private static void set(Bits target, String email) {
+        long[] hash = hash(email);
+        for (int i = 0; i < target.hashes(); i++) {
+            int index = index(hash, i, target.size());
+            target.words().getAndAccumulate(index >>> 6, 1L << index, (word, bit) -> word | bit);
+        }
+    }
+
+    private static boolean contains(Bits current, String email) {
+        long[] hash = hash(email);
+        for (int i = 0; i < current.hashes(); i++) {
+            int index = index(hash, i, current.size());
+            if ((current.words().get(index >>> 6) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int index(long[] hash, int i, int size) {
+        return (int) Long.remainderUnsigned(hash[0] + i * hash[1], size);
+    }
+
+    // emails compare case-insensitively in the database, so they do here too
+    private static long[] hash(String email) {
+        long h = 0xcbf29ce484222325L; //FNV-1a
+        for (byte b : email.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return new long[]{mix(h), mix(h + 0x9e3779b97f4a7c15L) | 1};
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,30 +1,62 @@
 package com.friends.sharing.service;
 
+import com.friends.sharing.configuration.CacheConfig;
 import com.friends.sharing.configuration.Mapper;
 import com.friends.sharing.dto.request.*;
 import com.friends.sharing.dto.response.*;
 import com.friends.sharing.exception.ItemException;
 import com.friends.sharing.model.Book;
+import com.friends.sharing.model.LendingAction;
 import com.friends.sharing.model.Present;
 import com.friends.sharing.model.User;
+import com.friends.sharing.repository.BookJdbcRepository;
 import com.friends.sharing.repository.BookRepository;
+import com.friends.sharing.repository.LendingHistoryRepository;
 import com.friends.sharing.repository.PresentRepository;
 import com.friends.sharing.repository.UserRepository;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import lombok.AllArgsConstructor;
 
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-
-import java.util.List;
-import java.util.Optional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Service
 @AllArgsConstructor
 public class FriendsSharingService {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int DELETE_CHUNK_SIZE = 1000;
+
     private final BookRepository bookRepository;
+    private final BookJdbcRepository bookJdbcRepository;
     private final PresentRepository presentRepository;
     private final UserRepository userRepository;
+    private final ObjectMapper objectMapper;
+    private final CacheManager cacheManager;
+    private final ItemVersions itemVersions;
+    private final ReadYourWrites readYourWrites;
+    private final TransferRetry transferRetry;
+    private final BookShards bookShards;
+    private final LendingHistory lendingHistory;
+    private final LendingHistoryRepository lendingHistoryRepository;
 
     @Transactional
     public BookWithUserDTO addBook(AddBookRequest bookRequest, User user) {
@@ -34,11 +66,37 @@ public class FriendsSharingService {
                 .holder(user)
                 .owner(user)
                 .build();
-        bookRepository.save(book);
+        if (bookShards.isSharded()) {
+            // the id comes from the sequence shared by all shards, the entity could only take one from the column
+            bookShards.assignBookIds(List.of(book));
+            bookShards.onShard(bookShards.shardOf(user.getUser_id()), () -> bookJdbcRepository.insertBooks(List.of(book)));
+        } else {
+            bookRepository.save(book);
+        }
+        itemsChanged(List.of(user.getUser_id()));
 
         return Mapper.mapToBookWithUserDTO(book, user);
     }
 
+    @Transactional
+    public List<BookWithUserDTO> addBooks(AddBooksRequest booksRequest, User user) {
+        List<Book> books = booksRequest.getBooks().stream()
+                .map(bookRequest -> Book.builder()
+                        .author(bookRequest.getAuthor())
+                        .title(bookRequest.getTitle())
+                        .holder(user)
+                        .owner(user)
+                        .build())
+                .toList();
+        bookShards.assignBookIds(books);
+        bookShards.onShard(bookShards.shardOf(user.getUser_id()), () -> bookJdbcRepository.insertBooks(books));
+        itemsChanged(List.of(user.getUser_id()));
+
+        return books.stream()
+                .map(book -> Mapper.mapToBookWithUserDTO(book, user))
+                .toList();
+    }
+
     /*@Transactional
     public PresentWithUserDTO addPresent(AddPresentRequest presentRequest, User user) {
         Present present = Present.builder()
@@ -52,11 +110,22 @@ public class FriendsSharingService {
         return Mapper.mapToPresentWithUserDTO(present, user);
     }*/
 
+    // read before the items themselves, so a concurrent change can only make the tag stale, never the body
+    public String getUserItemsETag(User user) {
+        return itemVersions.userETag(user.getUser_id());
+    }
+
+    public String getItemsETag() {
+        return itemVersions.itemsETag();
+    }
+
+    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = CacheConfig.HELD_ITEMS, key = "#user.user_id")
     public ItemsWithUser getHeldItems(User user) {
-        List<BookWithUserDTO> books = bookRepository.findHeldBooks(user.getUser_id())
-                .stream()
-                .map(book -> Mapper.mapToBookWithUserDTO(book, book.getOwner()))
-                .toList();
+        // borrowed books can be on any shard
+        List<BookWithUserDTO> books = readYourWrites.readUser(user.getUser_id(), () -> mergeByBookId(
+                bookShards.queryEachShard(() -> bookRepository.findHeldBookDTOs(user.getUser_id())),
+                BookWithUserDTO::getBook_id));
 
         /*List<PresentWithUserDTO> presents = presentRepository.findHeldPresents(user.getUser_id())
                 .stream()
@@ -66,11 +135,15 @@ public class FriendsSharingService {
         return new ItemsWithUser(books);//, presents);
     }
 
+    @Transactional(readOnly = true)
+    @Cacheable(cacheNames = CacheConfig.OWNED_ITEMS, key = "#user.user_id")
     public ItemsWithUser getOwnedItems(User user) {
-        List<BookWithUserDTO> books = bookRepository.findOwnedBooks(user.getUser_id())
-                .stream()
-                .map(book -> Mapper.mapToBookWithUserDTO(book, book.getHolder()))
-                .toList();
+        // a book given to this user may still wait on the giver's shard
+        List<BookWithUserDTO> books = readYourWrites.readUser(user.getUser_id(), () -> bookShards.isMovePending(user.getUser_id())
+                ? mergeByBookId(bookShards.queryEachShard(() -> bookRepository.findOwnedBookDTOs(user.getUser_id())),
+                        BookWithUserDTO::getBook_id)
+                : bookShards.onShard(bookShards.shardOf(user.getUser_id()),
+                        () -> bookRepository.findOwnedBookDTOs(user.getUser_id())));
 
         /*List<PresentWithUserDTO> presents = presentRepository.findOwnedPresents(user.getUser_id())
                 .stream()
@@ -80,45 +153,169 @@ public class FriendsSharingService {
         return new ItemsWithUser(books);//, presents);
     }
 
+    @Transactional(readOnly = true)
     public Items getItems() {
-        List<BookDTO> books = bookRepository.findAll()
-                .stream()
-                .map(Mapper::mapToBookDTO)
-                .toList();
+        List<BookDTO> books = readYourWrites.readAll(
+                () -> mergeByBookId(bookShards.queryEachShard(bookRepository::findAllBookDTOs), BookDTO::getBook_id));
 
         /*List<PresentDTO> presents = presentRepository.findAll()
                 .stream()
                 .map(Mapper::mapToPresentDTO)
                 .toList();*/
 
-        return new Items(books);//, presents);
+        return new Items(books, null);//, presents);
+    }
+
+    @Transactional(readOnly = true)
+    public Items getItems(Long after, Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new ItemException("Page size must be between 1 and " + MAX_PAGE_SIZE + "!");
+        }
+
+        // one extra row tells us whether there is a next page without a count query
+        List<BookDTO> books = readYourWrites.readAll(() -> mergeByBookId(bookShards.queryEachShard(
+                () -> bookRepository.findBookDTOsAfter(after == null ? 0L : after, Limit.of(pageSize + 1))),
+                BookDTO::getBook_id));
+        if (books.size() <= pageSize) {
+            return new Items(books, null);
+        }
+
+        List<BookDTO> page = books.subList(0, pageSize);
+        return new Items(page, page.get(pageSize - 1).getBook_id());
+    }
+
+    public void exportBooks(OutputStream outputStream) throws IOException {
+        try {
+            // shard by shard, the ids are only ordered within one of them
+            for (int shard = 0; shard < bookShards.getShardCount(); shard++) {
+                bookShards.onShard(shard, () -> bookJdbcRepository.forEachBook(book -> {
+                    try {
+                        outputStream.write(objectMapper.writeValueAsBytes(book));
+                        outputStream.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        outputStream.flush();
+    }
+
+    @Transactional(readOnly = true)
+    public List<LendingEventDTO> getBookHistory(Long bookId, Integer limit) {
+        return lendingHistoryRepository.findBookHistory(bookId, Limit.of(getHistorySize(limit)));
+    }
+
+    // two index range scans merged here instead of one OR query the database would have to sort
+    @Transactional(readOnly = true)
+    public List<LendingEventDTO> getUserHistory(Long userId, Integer limit) {
+        int size = getHistorySize(limit);
+        return Stream.concat(lendingHistoryRepository.findReceivedHistory(userId, Limit.of(size)).stream(),
+                        lendingHistoryRepository.findHandedOverHistory(userId, Limit.of(size)).stream())
+                .sorted(Comparator.comparing(LendingEventDTO::getTime, Comparator.reverseOrder()))
+                .limit(size)
+                .toList();
+    }
+
+    private static int getHistorySize(Integer limit) {
+        int size = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ItemException("Page size must be between 1 and " + MAX_PAGE_SIZE + "!");
+        }
+        return size;
     }
 
-    @Transactional
     public BookWithUserDTO shareBook(GiveBookRequest bookRequest, User owner) {
-        Book book = bookRepository.findOwnedBooks(owner.getUser_id()).stream()
-                .filter(b -> b.getTitle().equals(bookRequest.getTitle()))
-                .findFirst().orElseThrow(() -> new ItemException("You do not own a book with that title!"));
+        bookShards.settleMoves(owner.getUser_id());
+        return bookShards.onShard(bookShards.shardOf(owner.getUser_id()),
+                () -> transferRetry.execute(() -> transferBook(bookRequest, owner, false)));
+    }
+
+    public BookWithUserDTO giveBook(GiveBookRequest bookRequest, User owner) {
+        bookShards.settleMoves(owner.getUser_id());
+        return bookShards.onShard(bookShards.shardOf(owner.getUser_id()),
+                () -> transferRetry.execute(() -> transferBook(bookRequest, owner, true)));
+    }
+
+    private BookWithUserDTO transferBook(GiveBookRequest bookRequest, User owner, boolean changeOwner) {
+        Book book = bookRepository.findOwnedBookByTitle(owner.getUser_id(), bookRequest.getTitle())
+                .orElseThrow(() -> new ItemException("You do not own a book with that title!"));
         User holder = getNewUser(bookRequest.getUsername(), book);
 
         book.setHolder(holder);
+        if (changeOwner) {
+            book.setOwner(holder);
+        }
         bookRepository.save(book);
+        if (changeOwner && bookShards.isSharded()) {
+            bookShards.moveAfterCommit(bookShards.shardOf(owner.getUser_id()), Map.of(book.getBook_id(), holder.getUser_id()));
+        }
+        lendingHistory.record(book.getBook_id(), changeOwner ? LendingAction.GIVE : LendingAction.SHARE,
+                owner.getUser_id(), holder.getUser_id(), book.getOwner().getUser_id());
+        itemsChanged(List.of(owner.getUser_id(), holder.getUser_id()));
 
         return Mapper.mapToBookWithUserDTO(book, holder);
     }
 
-    @Transactional
-    public BookWithUserDTO giveBook(GiveBookRequest bookRequest, User owner) {
-        Book book = bookRepository.findOwnedBooks(owner.getUser_id()).stream()
-                .filter(b -> b.getTitle().equals(bookRequest.getTitle()))
-                .findFirst().orElseThrow(() -> new ItemException("You do not own a book with that title!"));
-        User holderOwner = getNewUser(bookRequest.getUsername(), book);
+    public List<BookTransferDTO> shareBooks(GiveBooksRequest booksRequest, User owner) {
+        bookShards.settleMoves(owner.getUser_id());
+        return bookShards.onShard(bookShards.shardOf(owner.getUser_id()),
+                () -> transferRetry.execute(() -> transferBooks(booksRequest.getBooks(), owner, false)));
+    }
 
-        book.setHolder(holderOwner);
-        book.setOwner(holderOwner);
-        bookRepository.save(book);
+    public List<BookTransferDTO> giveBooks(GiveBooksRequest booksRequest, User owner) {
+        bookShards.settleMoves(owner.getUser_id());
+        return bookShards.onShard(bookShards.shardOf(owner.getUser_id()),
+                () -> transferRetry.execute(() -> transferBooks(booksRequest.getBooks(), owner, true)));
+    }
 
-        return Mapper.mapToBookWithUserDTO(book, holderOwner);
+    // everything is looked up before the first change, so the updates are flushed together as one JDBC batch
+    private List<BookTransferDTO> transferBooks(List<GiveBookRequest> requests, User owner, boolean changeOwner) {
+        Map<String, List<Book>> ownedBooks = groupByTitleKey(bookRepository.findOwnedBooksByTitleKeys(
+                owner.getUser_id(), requests.stream().map(r -> Book.titleKey(r.getTitle())).collect(Collectors.toSet())));
+        Map<String, User> users = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        userRepository.findUsersByEmailIn(requests.stream().map(GiveBookRequest::getUsername).collect(Collectors.toSet()))
+                .forEach(u -> users.putIfAbsent(u.getEmail(), u));
+
+        List<BookTransferDTO> results = new ArrayList<>();
+        Set<Long> changedUsers = new HashSet<>(List.of(owner.getUser_id()));
+        Map<Long, Long> newOwners = new HashMap<>();
+        for (GiveBookRequest request : requests) {
+            try {
+                List<Book> books = ownedBooks.getOrDefault(Book.titleKey(request.getTitle()), new ArrayList<>());
+                if (books.isEmpty()) {
+                    throw new ItemException("You do not own a book with that title!");
+                }
+                Book book = books.get(0);
+                if (!book.getHolder().equals(book.getOwner())) {
+                    throw new ItemException("You have already given this book to someone!");
+                }
+                User holder = Optional.ofNullable(users.get(request.getUsername()))
+                        .orElseThrow(() -> new ItemException("There are no users with that username!!"));
+
+                books.remove(0);
+                book.setHolder(holder);
+                if (changeOwner) {
+                    book.setOwner(holder);
+                    newOwners.put(book.getBook_id(), holder.getUser_id());
+                } else {
+                    books.add(book); //still owned, but no longer at home
+                }
+                changedUsers.add(holder.getUser_id());
+                lendingHistory.record(book.getBook_id(), changeOwner ? LendingAction.GIVE : LendingAction.SHARE,
+                        owner.getUser_id(), holder.getUser_id(), book.getOwner().getUser_id());
+                results.add(new BookTransferDTO(request.getTitle(), true, Mapper.mapToBookWithUserDTO(book, holder), null));
+            } catch (ItemException e) {
+                results.add(new BookTransferDTO(request.getTitle(), false, null, e.getMessage()));
+            }
+        }
+        bookShards.moveAfterCommit(bookShards.shardOf(owner.getUser_id()), newOwners);
+        itemsChanged(changedUsers);
+
+        return results;
     }
 
     private User getNewUser(String username, Book book) {
@@ -149,40 +346,213 @@ public class FriendsSharingService {
 
     @Transactional
     public void returnBook(ReturnBookRequest bookRequest, User user) {
-        Book book = bookRepository.findHeldBooks(user.getUser_id()).stream()
-                .filter(b -> b.getTitle().equals(bookRequest.getTitle()))
-                .findFirst().orElseThrow(() -> new ItemException("You do not hold a book with that title!"));
-        User owner = book.getOwner();
-        if (user.equals(owner)) {
+        // borrowed copies come first across shards too
+        List<Optional<BookUsersDTO>> held = bookShards.queryEachShard(
+                () -> bookRepository.findHeldBookUsersByTitle(user.getUser_id(), bookRequest.getTitle()));
+        int shard = IntStream.range(0, held.size())
+                .filter(i -> held.get(i).isPresent())
+                .boxed()
+                .min(Comparator.comparing(i -> held.get(i).get().getOwner_id().equals(user.getUser_id())))
+                .orElseThrow(() -> new ItemException("You do not hold a book with that title!"));
+        BookUsersDTO book = held.get(shard).get();
+        Long ownerId = book.getOwner_id();
+        if (ownerId.equals(user.getUser_id())) {
             throw new ItemException("You are the owner of this book!");
         }
 
-        book.setHolder(owner);
-        bookRepository.save(book);
+        // conditional, so a concurrent return of the same copy can't succeed twice
+        if (bookShards.onShard(shard, () -> bookRepository.returnBookFromHolder(book.getBook_id(), user.getUser_id())) == 0) {
+            throw new ItemException("You do not hold a book with that title!");
+        }
+        lendingHistory.record(book.getBook_id(), LendingAction.RETURN, user.getUser_id(), ownerId, ownerId);
+        itemsChanged(List.of(user.getUser_id(), ownerId));
     }
 
+    @Transactional
+    public List<BookTransferDTO> returnBooks(ReturnBooksRequest booksRequest, User user) {
+        List<ReturnBookRequest> requests = booksRequest.getBooks();
+        Set<String> titleKeys = requests.stream().map(r -> Book.titleKey(r.getTitle())).collect(Collectors.toSet());
+        List<List<Book>> shardBooks = bookShards.queryEachShard(
+                () -> bookRepository.findHeldBooksByTitleKeys(user.getUser_id(), titleKeys));
+        Map<Long, Integer> shardOfBook = new HashMap<>();
+        for (int shard = 0; shard < shardBooks.size(); shard++) {
+            for (Book book : shardBooks.get(shard)) {
+                shardOfBook.put(book.getBook_id(), shard);
+            }
+        }
+        Map<String, List<Book>> heldBooks = groupByTitleKey(shardBooks.stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(FriendsSharingService::isAtHome).thenComparing(Book::getBook_id))
+                .toList());
+
+        List<BookTransferDTO> results = new ArrayList<>();
+        Set<Long> changedUsers = new HashSet<>(List.of(user.getUser_id()));
+        Map<Integer, Book> returned = new TreeMap<>(); //by position in results
+        for (ReturnBookRequest request : requests) {
+            try {
+                List<Book> books = heldBooks.getOrDefault(Book.titleKey(request.getTitle()), new ArrayList<>());
+                if (books.isEmpty()) {
+                    throw new ItemException("You do not hold a book with that title!");
+                }
+                Book book = books.get(0);
+                User owner = book.getOwner();
+                // by id, the principal of a bearer token carries no password and never equals the entity
+                if (owner.getUser_id().equals(user.getUser_id())) {
+                    throw new ItemException("You are the owner of this book!");
+                }
+
+                books.remove(0);
+                book.setHolder(owner);
+                changedUsers.add(owner.getUser_id());
+                returned.put(results.size(), book);
+                results.add(new BookTransferDTO(request.getTitle(), true, Mapper.mapToBookWithUserDTO(book, owner), null));
+            } catch (ItemException e) {
+                results.add(new BookTransferDTO(request.getTitle(), false, null, e.getMessage()));
+            }
+        }
+        if (bookShards.isSharded()) {
+            returnOnShards(returned, shardOfBook, user, results);
+        }
+        returned.forEach((position, book) -> {
+            if (results.get(position).isSuccess()) {
+                lendingHistory.record(book.getBook_id(), LendingAction.RETURN,
+                        user.getUser_id(), book.getOwner().getUser_id(), book.getOwner().getUser_id());
+            }
+        });
+        itemsChanged(changedUsers);
+
+        return results;
+    }
+
+    // books read from other shards are detached, each is returned by a conditional update on its own shard
+    private void returnOnShards(Map<Integer, Book> returned, Map<Long, Integer> shardOfBook, User user,
+                                List<BookTransferDTO> results) {
+        returned.entrySet().stream()
+                .collect(Collectors.groupingBy(entry -> shardOfBook.get(entry.getValue().getBook_id())))
+                .forEach((shard, books) -> bookShards.inTransaction(shard, () -> {
+                    for (Map.Entry<Integer, Book> entry : books) {
+                        if (bookRepository.returnBookFromHolder(entry.getValue().getBook_id(), user.getUser_id()) == 0) {
+                            results.set(entry.getKey(), new BookTransferDTO(results.get(entry.getKey()).getTitle(),
+                                    false, null, "You do not hold a book with that title!"));
+                        }
+                    }
+                    return null;
+                }));
+    }
+
+    private static boolean isAtHome(Book book) {
+        return book.getHolder().equals(book.getOwner());
+    }
+
+    // every shard's list is ordered by id already; a book caught while moving between shards is kept once
+    private static <T> List<T> mergeByBookId(List<List<T>> shards, Function<T, Long> bookId) {
+        if (shards.size() == 1) {
+            return shards.get(0);
+        }
+        return List.copyOf(shards.stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toMap(bookId, book -> book, (first, second) -> first, TreeMap::new))
+                .values());
+    }
+
+    private static Map<String, List<Book>> groupByTitleKey(List<Book> books) {
+        return books.stream().collect(Collectors.groupingBy(book -> Book.titleKey(book.getTitle()),
+                HashMap::new, Collectors.toCollection(ArrayList::new)));
+    }
+
+    // a single statement, the row count decides; its users are not read, so like the bulk delete
+    // every held and owned list is dropped
     @Transactional
     public boolean deleteBook(Long id) {
-        if (bookRepository.findById(id).isEmpty()) {
+        if (bookShards.updateEachShard(() -> bookRepository.deleteBooksByIds(List.of(id)))
+                .stream().mapToInt(Integer::intValue).sum() == 0) {
             return false;
         }
 
-        bookRepository.deleteById(id);
+        allItemsChanged();
         return true;
     }
 
     @Transactional
+    public int deleteBooks(DeleteBooksRequest booksRequest) {
+        List<Long> ids = booksRequest.getIds().stream().distinct().toList();
+        int deleted = bookShards.updateEachShard(() -> {
+            int shardDeleted = 0;
+            // chunks keep every IN list and the statement size bounded
+            for (int from = 0; from < ids.size(); from += DELETE_CHUNK_SIZE) {
+                shardDeleted += bookRepository.deleteBooksByIds(
+                        ids.subList(from, Math.min(from + DELETE_CHUNK_SIZE, ids.size())));
+            }
+            return shardDeleted;
+        }).stream().mapToInt(Integer::intValue).sum();
+        // looking up every affected user would cost more than rebuilding their lists
+        allItemsChanged();
+
+        return deleted;
+    }
+
     public boolean forceReturnBook(Long id) {
-        Optional<Book> optionalBook = bookRepository.findById(id);
-        if (optionalBook.isEmpty()) {
-            return false;
-        }
-        Book book = optionalBook.get();
+        return transferRetry.execute(() -> {
+            List<Optional<BookUsersDTO>> found = bookShards.queryEachShard(() -> bookRepository.findBookUsers(id));
+            int shard = IntStream.range(0, found.size()).filter(i -> found.get(i).isPresent()).findFirst().orElse(-1);
+            if (shard < 0) {
+                return false;
+            }
+
+            BookUsersDTO book = found.get(shard).get();
+            Long holderId = book.getHolder_id();
+            Long ownerId = book.getOwner_id();
+            if (holderId.equals(ownerId)) {
+                return true; //already at home, nothing to update
+            }
+
+            // the same update as a return by the holder, so it only matches while the book is still borrowed by them
+            if (bookShards.onShard(shard, () -> bookRepository.returnBookFromHolder(id, holderId)) == 0) {
+                throw new ObjectOptimisticLockingFailureException(Book.class, id);
+            }
+
+            lendingHistory.record(id, LendingAction.FORCE_RETURN, holderId, ownerId, ownerId);
+            itemsChanged(List.of(holderId, ownerId));
+            return true;
+        });
+    }
 
-        book.setHolder(book.getOwner());
-        bookRepository.save(book);
+    // held and owned lists show the other side of every book, so both users' lists are dropped
+    private void itemsChanged(Collection<Long> userIds) {
+        List<Cache> caches = getItemsCaches();
+        runNowAndAfterCommit(() -> {
+            userIds.forEach(id -> caches.forEach(cache -> cache.evict(id)));
+            itemVersions.changed(userIds);
+            readYourWrites.changed(userIds);
+        });
+    }
 
-        return true;
+    private void allItemsChanged() {
+        runNowAndAfterCommit(() -> {
+            getItemsCaches().forEach(Cache::clear);
+            itemVersions.changedAll();
+            readYourWrites.changedAll();
+        });
+    }
+
+    // repeated after commit, so a read that raced the transaction can't leave the old rows cached or tagged
+    private static void runNowAndAfterCommit(Runnable action) {
+        action.run();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        }
+    }
+
+    private List<Cache> getItemsCaches() {
+        return Stream.of(CacheConfig.HELD_ITEMS, CacheConfig.OWNED_ITEMS)
+                .map(cacheManager::getCache)
+                .filter(Objects::nonNull)
+                .toList();
     }
 
     /*@Transactional
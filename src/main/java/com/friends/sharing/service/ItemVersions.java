@@ -0,0 +1,37 @@
+package com.friends.sharing.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Change counters behind the ETags of /held, /owned (per user) and /items (global).
+// The epoch keeps tags from before a restart, or from another instance, from ever matching.
+@Component
+public class ItemVersions {
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    private final Map<Long, Long> userVersions = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong(); //bumped when changed users are unknown
+    private final AtomicLong itemsVersion = new AtomicLong();
+
+    public String userETag(Long userId) {
+        return "\"" + epoch + "-" + generation.get() + "-" + userVersions.getOrDefault(userId, 0L) + "\"";
+    }
+
+    public String itemsETag() {
+        return "\"" + epoch + "-" + itemsVersion.get() + "\"";
+    }
+
+    public void changed(Collection<Long> userIds) {
+        userIds.forEach(id -> userVersions.merge(id, 1L, Long::sum));
+        itemsVersion.incrementAndGet();
+    }
+
+    public void changedAll() {
+        generation.incrementAndGet();
+        itemsVersion.incrementAndGet();
+    }
+}
@@ -0,0 +1,175 @@
+package com.friends.sharing.service;
+
+import com.friends.sharing.model.LendingAction;
+import com.friends.sharing.model.LendingEvent;
+import com.friends.sharing.repository.LendingHistoryJdbcRepository;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Lending history journal: transfers hand their events over after commit without waiting,
+// a single background writer inserts them in JDBC batches. When the queue is full or the writer has stopped,
+// events are dropped and counted.
+@Slf4j
+@Component
+public class LendingHistory implements DisposableBean, MeterBinder {
+    private final LendingHistoryJdbcRepository lendingHistoryJdbcRepository;
+    private final Clock clock;
+    private final BlockingQueue<LendingEvent> queue;
+    private final int batchSize;
+    private final long flushMillis;
+    private final Thread writer;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final ReadWriteLock stopping = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    @Autowired
+    public LendingHistory(LendingHistoryJdbcRepository lendingHistoryJdbcRepository,
+                          @Value("${friends-sharing.history.queue-capacity:10000}") int queueCapacity,
+                          @Value("${friends-sharing.history.batch-size:500}") int batchSize,
+                          @Value("${friends-sharing.history.flush-millis:200}") long flushMillis) {
+        this(lendingHistoryJdbcRepository, Clock.systemUTC(), queueCapacity, batchSize, flushMillis);
+    }
+
+    public LendingHistory(LendingHistoryJdbcRepository lendingHistoryJdbcRepository, Clock clock,
+                          int queueCapacity, int batchSize, long flushMillis) {
+        this.lendingHistoryJdbcRepository = lendingHistoryJdbcRepository;
+        this.clock = clock;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.writer = new Thread(this::writeEvents, "lending-history-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // a rolled back transfer leaves no history
+    public void record(Long bookId, LendingAction action, Long fromUserId, Long userId, Long ownerId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(bookId, action, fromUserId, userId, ownerId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                enqueue(bookId, action, fromUserId, userId, ownerId);
+            }
+        });
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("friends.sharing.history.queue.depth", this, LendingHistory::getQueueDepth)
+                .register(registry);
+        FunctionCounter.builder("friends.sharing.history.events", this, LendingHistory::getWrittenCount)
+                .tag("result", "written")
+                .register(registry);
+        FunctionCounter.builder("friends.sharing.history.events", this, LendingHistory::getDroppedCount)
+                .tag("result", "dropped")
+                .register(registry);
+        FunctionCounter.builder("friends.sharing.history.events", this, LendingHistory::getFailedCount)
+                .tag("result", "failed")
+                .register(registry);
+    }
+
+    // writes whatever is still queued before the connection pool goes away;
+    // commits that finish after this point find the writer stopped and count their events as dropped
+    @Override
+    public void destroy() throws InterruptedException {
+        stopping.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stopping.writeLock().unlock();
+        }
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    private void enqueue(Long bookId, LendingAction action, Long fromUserId, Long userId, Long ownerId) {
+        LendingEvent event = LendingEvent.builder()
+                .book_id(bookId)
+                .action(action)
+                .from_user_id(fromUserId)
+                .user_id(userId)
+                .owner_id(ownerId)
+                .time(clock.instant())
+                .build();
+        // the writer drains the queue until empty once stopped, so an offer made while running is still written
+        stopping.readLock().lock();
+        try {
+            if (!running) {
+                dropped.incrementAndGet();
+                log.warn("Lending history writer is stopped, dropped {} {}", action, bookId);
+            } else if (!queue.offer(event)) {
+                dropped.incrementAndGet();
+                log.warn("Lending history queue is full, dropped {} {}", action, bookId);
+            }
+        } finally {
+            stopping.readLock().unlock();
+        }
+    }
+
+    private void writeEvents() {
+        List<LendingEvent> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                LendingEvent first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                lendingHistoryJdbcRepository.insertEvents(batch);
+                written.addAndGet(batch.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (DataAccessException e) {
+                failed.addAndGet(batch.size());
+                log.error("Could not write {} lending history events", batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+}
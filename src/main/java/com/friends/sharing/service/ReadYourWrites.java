@@ -0,0 +1,73 @@
+package com.friends.sharing.service;
+
+import com.friends.sharing.configuration.ReadWriteRoutingDataSource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.function.Supplier;
+
+// Users whose books changed within the window read from the primary, the replica may not have the change yet.
+// A stale read would also be cached until the next change, so this covers everyone affected, not only the author.
+@Component
+public class ReadYourWrites {
+    private final long windowNanos;
+    private final Ticker ticker;
+    private final Cache<Long, Boolean> changedUsers;
+    private volatile long lastChange;
+    private volatile long lastChangeOfAll;
+
+    @Autowired
+    public ReadYourWrites(@Value("${friends-sharing.datasource.replica.read-your-writes-millis:2000}") long windowMillis,
+                          @Value("${friends-sharing.datasource.replica.max-tracked-users:100000}") int maxUsers) {
+        this(Duration.ofMillis(windowMillis), maxUsers, Ticker.systemTicker());
+    }
+
+    public ReadYourWrites(Duration window, int maxUsers, Ticker ticker) {
+        this.windowNanos = window.toNanos();
+        this.ticker = ticker;
+        this.changedUsers = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterWrite(window)
+                .ticker(ticker)
+                .build();
+        this.lastChange = ticker.read() - windowNanos;
+        this.lastChangeOfAll = lastChange;
+    }
+
+    public void changed(Collection<Long> userIds) {
+        userIds.forEach(id -> changedUsers.put(id, Boolean.TRUE));
+        lastChange = ticker.read();
+    }
+
+    public void changedAll() {
+        lastChange = ticker.read();
+        lastChangeOfAll = lastChange;
+    }
+
+    public <T> T readUser(Long userId, Supplier<T> read) {
+        if (isRecent(lastChangeOfAll) || changedUsers.getIfPresent(userId) != null) {
+            return ReadWriteRoutingDataSource.onPrimary(read);
+        }
+        return read.get();
+    }
+
+    // every change shows up in the whole catalog
+    public <T> T readAll(Supplier<T> read) {
+        if (isRecent(lastChange)) {
+            return ReadWriteRoutingDataSource.onPrimary(read);
+        }
+        return read.get();
+    }
+
+    private boolean isRecent(long changeTime) {
+        return ticker.read() - changeTime < windowNanos;
+    }
+}
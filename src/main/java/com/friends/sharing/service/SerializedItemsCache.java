@@ -0,0 +1,62 @@
+package com.friends.sharing.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+// The whole catalog as ready-to-send bytes, rebuilt by the first request after a change.
+// A bean of its own, so the rebuild calls getItems() through its read-only transaction and reaches the replica.
+@Component
+@AllArgsConstructor
+public class SerializedItemsCache {
+    public record SerializedItems(String etag, byte[] json, byte[] gzip) {
+    }
+
+    private final FriendsSharingService friendsSharingService;
+    private final ObjectMapper objectMapper;
+    private final ItemVersions itemVersions;
+    private final AtomicReference<SerializedItems> entry = new AtomicReference<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public SerializedItems get() {
+        SerializedItems cached = entry.get();
+        if (isCurrent(cached, itemVersions.itemsETag())) {
+            return cached;
+        }
+
+        lock.lock();
+        try {
+            String etag = itemVersions.itemsETag();
+            cached = entry.get();
+            if (isCurrent(cached, etag)) {
+                return cached;
+            }
+
+            try {
+                byte[] json = objectMapper.writeValueAsBytes(friendsSharingService.getItems());
+                ByteArrayOutputStream gzip = new ByteArrayOutputStream(json.length / 4);
+                try (GZIPOutputStream gzipStream = new GZIPOutputStream(gzip)) {
+                    gzipStream.write(json);
+                }
+                cached = new SerializedItems(etag, json, gzip.toByteArray());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            entry.set(cached);
+            return cached;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isCurrent(SerializedItems cached, String etag) {
+        return cached != null && cached.etag().equals(etag);
+    }
+}
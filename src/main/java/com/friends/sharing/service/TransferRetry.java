@@ -0,0 +1,102 @@
+package com.friends.sharing.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Runs a book transfer in its own transaction and repeats it when a concurrent transfer bumped the
+// version first; the next attempt re-reads the book, so it sees the other transfer and decides again.
+@Slf4j
+@Component
+public class TransferRetry implements MeterBinder {
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    public TransferRetry(PlatformTransactionManager transactionManager,
+                         @Value("${friends-sharing.transfers.retry.max-attempts:3}") int maxAttempts,
+                         @Value("${friends-sharing.transfers.retry.backoff-millis:20}") long backoffMillis) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+    }
+
+    public <T> T execute(Supplier<T> transfer) {
+        // inside someone else's transaction the conflict only shows up at their commit, nothing to repeat here
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return transfer.get();
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> transfer.get());
+            } catch (OptimisticLockingFailureException e) {
+                conflicts.incrementAndGet();
+                Object book = e instanceof ObjectOptimisticLockingFailureException lockingFailure
+                        ? lockingFailure.getIdentifier() : null;
+                if (attempt >= maxAttempts) {
+                    exhausted.incrementAndGet();
+                    log.warn("Book {} is still contended after {} attempts", book, attempt);
+                    throw e;
+                }
+                retries.incrementAndGet();
+                log.debug("Book {} was changed concurrently, attempt {} of {}", book, attempt, maxAttempts);
+                backOff(attempt);
+            }
+        }
+    }
+
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("friends.sharing.transfer.conflicts", this, TransferRetry::getConflictCount)
+                .register(registry);
+        FunctionCounter.builder("friends.sharing.transfer.retries", this, TransferRetry::getRetryCount)
+                .register(registry);
+        FunctionCounter.builder("friends.sharing.transfer.exhausted", this, TransferRetry::getExhaustedCount)
+                .register(registry);
+    }
+
+    // full jitter, so the losers of one conflict don't collide again on the next attempt
+    private void backOff(int attempt) {
+        long bound = backoffMillis << Math.min(attempt - 1, 10);
+        if (bound <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying a book transfer", e);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.friends.sharing.service;
 
 import com.friends.sharing.configuration.security.Authorities;
+import com.friends.sharing.configuration.security.CredentialCache;
+import com.friends.sharing.configuration.security.PasswordHashingExecutor;
 import com.friends.sharing.configuration.security.UserAdapter;
 import com.friends.sharing.repository.UserRepository;
 import com.friends.sharing.dto.request.RegistrationRequest;
@@ -8,12 +10,12 @@ import com.friends.sharing.model.User;
 
 import lombok.AllArgsConstructor;
 
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.Arrays;
@@ -21,11 +23,15 @@ import java.util.Arrays;
 @Service
 @AllArgsConstructor
 public class UserDetailsServiceImp implements UserDetailsService {
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingExecutor passwordHashingExecutor;
     private final UserRepository userRepository;
+    private final CredentialCache credentialCache;
+    private final EmailBloomFilter emailBloomFilter;
+    private final BookShards bookShards;
 
     public ResponseEntity<String> register(RegistrationRequest registrationRequest) {
-        if (userRepository.findUserByEmail(registrationRequest.getEmail()).isPresent()) {
+        if (emailBloomFilter.mightContain(registrationRequest.getEmail())
+                && userRepository.findUserByEmail(registrationRequest.getEmail()).isPresent()) {
             return new ResponseEntity<>("Such a user already exists!",
                     HttpStatus.BAD_REQUEST);
         }
@@ -39,16 +45,27 @@ public class UserDetailsServiceImp implements UserDetailsService {
         User user = User.builder()
                 .name(registrationRequest.getName())
                 .email(registrationRequest.getEmail())
-                .password(passwordEncoder.encode(registrationRequest.getPassword()))
+                .password(passwordHashingExecutor.encode(registrationRequest.getPassword()))
                 .authority(authority)
                 .build();
-        userRepository.save(user);
+        try {
+            userRepository.save(user);
+        } catch (DataIntegrityViolationException e) { //registered concurrently, uk_user_email caught it
+            return new ResponseEntity<>("Such a user already exists!",
+                    HttpStatus.BAD_REQUEST);
+        }
+        bookShards.copyUser(user); //books on other shards join their users there
+        emailBloomFilter.put(user.getEmail());
+        credentialCache.evict(user.getEmail());
 
         return new ResponseEntity<>("Successfully registered, your email is your username", HttpStatus.OK);
     }
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        if (!emailBloomFilter.mightContainNow(username)) {
+            throw new UsernameNotFoundException("Not found!");
+        }
         User user = userRepository.findUserByEmail(username)
                 .orElseThrow(() -> new UsernameNotFoundException("Not found!"));
 
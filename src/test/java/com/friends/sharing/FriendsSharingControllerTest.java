@@ -1,19 +1,31 @@
 package com.friends.sharing;
 
 import com.friends.sharing.configuration.security.Authorities;
+import com.friends.sharing.configuration.security.RateLimiter;
 import com.friends.sharing.configuration.security.SecurityConfig;
+import com.friends.sharing.configuration.security.TokenService;
 import com.friends.sharing.configuration.security.UserAdapter;
 import com.friends.sharing.controller.FriendsSharingController;
 import com.friends.sharing.dto.request.AddBookRequest;
+import com.friends.sharing.dto.request.DeleteBooksRequest;
 import com.friends.sharing.dto.request.GiveBookRequest;
+import com.friends.sharing.dto.request.GiveBooksRequest;
 import com.friends.sharing.dto.request.RegistrationRequest;
 import com.friends.sharing.dto.request.ReturnBookRequest;
 import com.friends.sharing.dto.response.*;
 import com.friends.sharing.exception.ItemException;
+import com.friends.sharing.exception.ServiceBusyException;
+import com.friends.sharing.model.Book;
+import com.friends.sharing.model.LendingAction;
 import com.friends.sharing.model.User;
 import com.friends.sharing.service.FriendsSharingService;
+import com.friends.sharing.service.SerializedItemsCache;
 import com.friends.sharing.service.UserDetailsServiceImp;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
@@ -24,19 +36,27 @@ import org.springframework.context.annotation.Import;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.CannotCreateTransactionException;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.List;
 
+import static org.hamcrest.Matchers.hasItem;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@WebMvcTest(FriendsSharingController.class)
+@WebMvcTest(value = FriendsSharingController.class,
+        properties = "friends-sharing.rate-limit.user.refill-per-second = 0.1") //no refill while a test runs
 @Import(SecurityConfig.class)
 public class FriendsSharingControllerTest {
     @Autowired
@@ -45,11 +65,22 @@ public class FriendsSharingControllerTest {
     @MockBean
     FriendsSharingService friendsSharingService;
     @MockBean
+    SerializedItemsCache serializedItemsCache;
+    @MockBean
     UserDetailsServiceImp userDetailsService;
+    @Autowired
+    TokenService tokenService;
+    @Autowired
+    RateLimiter rateLimiter;
 
     User user = User.builder().user_id(1L).name("vlad").email("ignat@gmail.com")
             .password("center").authority(Authorities.USER).build();
 
+    @BeforeEach
+    void resetRateLimits() {
+        rateLimiter.evictAll();
+    }
+
     @Test
     @DisplayName("Test for POST /register endpoint")
     void testRegisterEndpoint() throws Exception {
@@ -78,6 +109,34 @@ public class FriendsSharingControllerTest {
                 .andExpect(content().bytes("Successfully registered, your email is your username".getBytes()));
     }
 
+    @Test
+    @DisplayName("Test for POST /register endpoint(hashing queue full)")
+    void testRegisterEndpoint_Busy() throws Exception {
+        var registrationRequest = new RegistrationRequest(
+                "vlad",
+                "ignat@gmail.com",
+                "center",
+                "user"
+        );
+
+        when(userDetailsService.register(registrationRequest))
+                .thenThrow(new ServiceBusyException("Too many registrations at the moment, try again later!"));
+
+        var requestBuilder = post("/register")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        {
+                        "name":"vlad",
+                        "email":"ignat@gmail.com",
+                        "password":"center",
+                        "authority":"user"
+                        }""");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists("Retry-After"))
+                .andExpect(jsonPath("$.error").value("Too many registrations at the moment, try again later!"));
+    }
+
     @Test
     @DisplayName("Test for POST /register endpoint(wrong role provided)")
     void testRegisterEndpoint_WrongRole() throws Exception {
@@ -201,6 +260,89 @@ public class FriendsSharingControllerTest {
                 .andExpect(jsonPath("$.books[1].person.email").value("ignat@gmail.com"));
     }
 
+    @Test
+    @DisplayName("Test for GET /held endpoint(not modified)")
+    void testGetHeldBooks_NotModified() throws Exception {
+        when(friendsSharingService.getUserItemsETag(user)).thenReturn("\"a-0-3\"");
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        mockMvc.perform(get("/held").header("If-None-Match", "\"a-0-3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"a-0-3\""))
+                .andExpect(content().string(""));
+        verify(friendsSharingService, never()).getHeldItems(any());
+    }
+
+    @Test
+    @DisplayName("Test for GET /held endpoint(connection pool exhausted)")
+    void testGetHeldBooks_PoolExhausted() throws Exception {
+        when(friendsSharingService.getUserItemsETag(user))
+                .thenThrow(new CannotCreateTransactionException("Connection is not available"));
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        mockMvc.perform(get("/held"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"))
+                .andExpect(jsonPath("$.error").value("The service is busy, try again later!"));
+    }
+
+    @Test
+    @DisplayName("Test for POST /token endpoint")
+    void testToken() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        mockMvc.perform(post("/token"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.access_token").isNotEmpty())
+                .andExpect(jsonPath("$.token_type").value("Bearer"))
+                .andExpect(jsonPath("$.expires_in").value(900));
+    }
+
+    @Test
+    @DisplayName("Test for GET /held endpoint(bearer token)")
+    void testGetHeldBooks_BearerToken() throws Exception {
+        var response = ItemsWithUser.builder().books(List.of()).build();
+        String token = tokenService.issue(user).getAccess_token();
+
+        when(friendsSharingService.getHeldItems(any())).thenReturn(response);
+
+        mockMvc.perform(get("/held").header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books").isEmpty());
+        verify(friendsSharingService).getHeldItems(User.builder().user_id(1L).name("vlad").email("ignat@gmail.com")
+                .authority(Authorities.USER).build());
+        verifyNoInteractions(userDetailsService);
+    }
+
+    @Test
+    @DisplayName("Test for GET /items endpoint(bearer token, wrong authority)")
+    void testGetItems_BearerTokenWrongAuthority() throws Exception {
+        String token = tokenService.issue(user).getAccess_token();
+
+        mockMvc.perform(get("/items").header("Authorization", "Bearer " + token))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    @DisplayName("Test for GET /held endpoint(tampered bearer token)")
+    void testGetHeldBooks_TamperedToken() throws Exception {
+        String token = tokenService.issue(user).getAccess_token();
+        String admin = tokenService.issue(User.builder().user_id(1L).name("vlad").email("ignat@gmail.com")
+                .authority(Authorities.ADMIN).build()).getAccess_token();
+        String forged = admin.substring(0, admin.indexOf('.')) + token.substring(token.indexOf('.'));
+
+        mockMvc.perform(get("/held").header("Authorization", "Bearer " + forged))
+                .andExpect(status().isUnauthorized())
+                .andExpect(header().string("WWW-Authenticate", "Bearer error=\"invalid_token\""));
+        verifyNoInteractions(friendsSharingService);
+    }
+
     @Test
     @DisplayName("Test for GET /owned endpoint")
     void testGetOwnedBooks() throws Exception {
@@ -228,6 +370,23 @@ public class FriendsSharingControllerTest {
                 .andExpect(jsonPath("$.books[0].person.email").value("email@gmail.com"));
     }
 
+    @Test
+    @DisplayName("Test for GET /owned endpoint(modified)")
+    void testGetOwnedBooks_Modified() throws Exception {
+        var response = ItemsWithUser.builder().books(List.of()).build();
+
+        when(friendsSharingService.getUserItemsETag(user)).thenReturn("\"a-0-4\"");
+        when(friendsSharingService.getOwnedItems(user)).thenReturn(response);
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        mockMvc.perform(get("/owned").header("If-None-Match", "\"a-0-3\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"a-0-4\""))
+                .andExpect(jsonPath("$.books").isEmpty());
+    }
+
     @Test
     @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
     @DisplayName("Test for GET /items endpoint")
@@ -247,8 +406,10 @@ public class FriendsSharingControllerTest {
                 .owner_id(2L)
                 .build();
         var response = Items.builder().books(List.of(expectOne, expectTwo)).build();
+        byte[] json = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL).writeValueAsBytes(response);
 
-        when(friendsSharingService.getItems()).thenReturn(response);
+        when(serializedItemsCache.get())
+                .thenReturn(new SerializedItemsCache.SerializedItems("\"a-1\"", json, new byte[0]));
 
         var requestBuilder = get("/items");
         mockMvc.perform(requestBuilder)
@@ -265,6 +426,126 @@ public class FriendsSharingControllerTest {
                 .andExpect(jsonPath("$.books[1].owner_id").value(2));
     }
 
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
+    @DisplayName("Test for GET /items endpoint(gzip)")
+    void testGetItems_Gzip() throws Exception {
+        byte[] gzip = {31, -117, 8, 0};
+
+        when(friendsSharingService.getItemsETag()).thenReturn("\"a-1\"");
+        when(serializedItemsCache.get())
+                .thenReturn(new SerializedItemsCache.SerializedItems("\"a-1\"", new byte[0], gzip));
+
+        mockMvc.perform(get("/items").header("Accept-Encoding", "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().stringValues("Vary", hasItem("Accept-Encoding")))
+                .andExpect(header().string("ETag", "\"a-1-gzip\""))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().bytes(gzip));
+        verify(friendsSharingService, never()).getItems();
+
+        // the plain body's tag does not validate the compressed one
+        mockMvc.perform(get("/items").header("Accept-Encoding", "gzip").header("If-None-Match", "\"a-1\""))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(gzip));
+        mockMvc.perform(get("/items").header("Accept-Encoding", "gzip").header("If-None-Match", "\"a-1-gzip\""))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
+    @DisplayName("Test for GET /items endpoint(gzip refused)")
+    void testGetItems_GzipRefused() throws Exception {
+        byte[] json = "{\"books\":[]}".getBytes(StandardCharsets.UTF_8);
+
+        when(friendsSharingService.getItemsETag()).thenReturn("\"a-1\"");
+        when(serializedItemsCache.get())
+                .thenReturn(new SerializedItemsCache.SerializedItems("\"a-1\"", json, new byte[0]));
+
+        for (String acceptEncoding : List.of("gzip;q=0, deflate", "deflate, *;q=0.5, gzip; Q=0.0", "identity")) {
+            mockMvc.perform(get("/items").header("Accept-Encoding", acceptEncoding))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist("Content-Encoding"))
+                    .andExpect(header().string("ETag", "\"a-1\""))
+                    .andExpect(content().bytes(json));
+        }
+        mockMvc.perform(get("/items").header("Accept-Encoding", "br;q=1, *;q=0.1"))
+                .andExpect(header().string("Content-Encoding", "gzip"));
+    }
+
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
+    @DisplayName("Test for GET /items endpoint(cursor page)")
+    void testGetItemsPage() throws Exception {
+        var expectOne = BookDTO.builder()
+                .book_id(2L)
+                .author("Someone")
+                .title("Not Effective Java")
+                .holder_id(1L)
+                .owner_id(2L)
+                .build();
+        var response = Items.builder().books(List.of(expectOne)).next_cursor(2L).build();
+
+        when(friendsSharingService.getItems(1L, 1)).thenReturn(response);
+
+        var requestBuilder = get("/items?after=1&limit=1");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].book_id").value(2))
+                .andExpect(jsonPath("$.books[0].title").value("Not Effective Java"))
+                .andExpect(jsonPath("$.next_cursor").value(2));
+    }
+
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
+    @DisplayName("Test for GET /items/export endpoint")
+    void testExportItems() throws Exception {
+        doAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(0);
+            outputStream.write("{\"book_id\":1}\n{\"book_id\":2}\n".getBytes());
+            return null;
+        }).when(friendsSharingService).exportBooks(any());
+
+        var result = mockMvc.perform(get("/items/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"book_id\":1}\n{\"book_id\":2}\n"));
+    }
+
+    @Test
+    @DisplayName("Test for GET /items/export endpoint(bearer token)")
+    void testExportItems_BearerToken() throws Exception {
+        var admin = User.builder().user_id(2L).name("ignat").email("admin@gmail.com")
+                .password("center").authority(Authorities.ADMIN).build();
+        String token = tokenService.issue(admin).getAccess_token();
+
+        doAnswer(invocation -> {
+            OutputStream outputStream = invocation.getArgument(0);
+            outputStream.write("{\"book_id\":1}\n".getBytes());
+            return null;
+        }).when(friendsSharingService).exportBooks(any());
+
+        // the stream is written on an async dispatch, which has to find the token's authentication again
+        var result = mockMvc.perform(get("/items/export").header("Authorization", "Bearer " + token))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string("{\"book_id\":1}\n"));
+    }
+
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "USER")
+    @DisplayName("Test for GET /items/export endpoint(wrong authority)")
+    void testExportItems_WrongAuthority() throws Exception {
+        mockMvc.perform(get("/items/export"))
+                .andExpect(status().isForbidden());
+    }
+
     @Test
     @DisplayName("Test for POST /book/share endpoint")
     void testShareBook() throws Exception {
@@ -348,6 +629,25 @@ public class FriendsSharingControllerTest {
                 .andExpect(jsonPath("$.error").value("There are no users with that username!!"));
     }
 
+    @Test
+    @DisplayName("Test for POST /book/share endpoint(concurrent change)")
+    void testShareBook_ConcurrentChange() throws Exception {
+        var request = new GiveBookRequest("Effective Java", "email@gmail.com");
+
+        when(friendsSharingService.shareBook(request, user))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L));
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        var requestBuilder = post("/book/share")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"title\":\"Effective Java\",\"username\":\"email@gmail.com\"}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.error").value("The book is being changed by someone else, try again!"));
+    }
+
     @Test
     @DisplayName("Test for POST /book/give endpoint")
     void testGiveBook() throws Exception {
@@ -431,6 +731,68 @@ public class FriendsSharingControllerTest {
                 .andExpect(jsonPath("$.error").value("There are no users with that username!!"));
     }
 
+    @Test
+    @DisplayName("Test for POST /book/share/batch endpoint")
+    void testShareBooks() throws Exception {
+        var request = new GiveBooksRequest(List.of(
+                new GiveBookRequest("Effective Java", "email@gmail.com"),
+                new GiveBookRequest("Python", "email@gmail.com")
+        ));
+        var response = List.of(
+                new BookTransferDTO("Effective Java", true, BookWithUserDTO.builder()
+                        .author("Joshua Bloch")
+                        .title("Effective Java")
+                        .person(UserDTO.builder().name("vadim").email("email@gmail.com").build())
+                        .build(), null),
+                new BookTransferDTO("Python", false, null, "You do not own a book with that title!"));
+
+        when(friendsSharingService.shareBooks(request, user)).thenReturn(response);
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        var requestBuilder = post("/book/share/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"books\":[{\"title\":\"Effective Java\",\"username\":\"email@gmail.com\"}," +
+                        "{\"title\":\"Python\",\"username\":\"email@gmail.com\"}]}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].success").value(true))
+                .andExpect(jsonPath("$[0].book.person.email").value("email@gmail.com"))
+                .andExpect(jsonPath("$[1].success").value(false))
+                .andExpect(jsonPath("$[1].error").value("You do not own a book with that title!"));
+    }
+
+    @Test
+    @DisplayName("Test for POST /book/give/batch endpoint(empty list)")
+    void testGiveBooks_Empty() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        var requestBuilder = post("/book/give/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"books\":[]}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Write down the books you want to give!"));
+    }
+
+    @Test
+    @DisplayName("Test for POST /book/return/batch endpoint(null book)")
+    void testReturnBooks_NullBook() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        var requestBuilder = post("/book/return/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"books\":[null]}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("A book to return is missing!"));
+    }
+
     @Test
     @DisplayName("Test for POST /book/return endpoint")
     void testReturnBook() throws Exception {
@@ -487,6 +849,31 @@ public class FriendsSharingControllerTest {
                 .andExpect(jsonPath("$.error").value("You are the owner of this book!"));
     }
 
+    @Test
+    @DisplayName("Test for POST /book/return endpoint(too many requests)")
+    void testReturnBook_TooManyRequests() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        var requestBuilder = post("/book/return")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"title\":\"Effective Java\"}");
+        for (int i = 0; i < 30; i++) {
+            mockMvc.perform(requestBuilder)
+                    .andExpect(status().isOk());
+        }
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().exists("Retry-After"))
+                .andExpect(header().string("X-RateLimit-Remaining", "0"))
+                .andExpect(jsonPath("$.error").value("Too many requests, try again later!"));
+        verify(friendsSharingService, times(30)).returnBook(any(), any());
+
+        mockMvc.perform(get("/held"))
+                .andExpect(status().isOk());
+    }
+
     @Test
     @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
     @DisplayName("Test for DELETE /book/delete endpoint")
@@ -511,6 +898,31 @@ public class FriendsSharingControllerTest {
                 .andExpect(content().bytes("Wrong id".getBytes()));
     }
 
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
+    @DisplayName("Test for DELETE /book/delete/batch endpoint")
+    void testDeleteBooks() throws Exception {
+        when(friendsSharingService.deleteBooks(new DeleteBooksRequest(List.of(1L, 2L, 3L)))).thenReturn(2);
+
+        var requestBuilder = delete("/book/delete/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"ids\":[1,2,3]}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(content().bytes("Books deleted: 2".getBytes()));
+    }
+
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "USER")
+    @DisplayName("Test for DELETE /book/delete/batch endpoint(wrong authority)")
+    void testDeleteBooks_WrongAuthority() throws Exception {
+        var requestBuilder = delete("/book/delete/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"ids\":[1,2,3]}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isForbidden());
+    }
+
     @Test
     @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
     @DisplayName("Test for POST /book/return/force endpoint")
@@ -535,6 +947,62 @@ public class FriendsSharingControllerTest {
                 .andExpect(content().bytes("Wrong id".getBytes()));
     }
 
+    @Test
+    @DisplayName("Test for GET /history endpoint")
+    void testGetHistory() throws Exception {
+        when(friendsSharingService.getUserHistory(1L, 10)).thenReturn(List.of(
+                new LendingEventDTO(1L, LendingAction.RETURN, 2L, 1L, 1L, Instant.parse("2024-05-01T10:15:30.123456Z"))
+        ));
+        SecurityContextHolder.getContext().setAuthentication(new PreAuthenticatedAuthenticationToken(
+                new UserAdapter(user), null, List.of(new SimpleGrantedAuthority(user.getAuthority().toString()))
+        )); //initialize user in program
+
+        var requestBuilder = get("/history?limit=10");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].action").value("RETURN"))
+                .andExpect(jsonPath("$[0].from_user_id").value(2))
+                .andExpect(jsonPath("$[0].time").value("2024-05-01T10:15:30.123456Z"));
+    }
+
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
+    @DisplayName("Test for GET /history/book endpoint")
+    void testGetBookHistory() throws Exception {
+        when(friendsSharingService.getBookHistory(1L, null)).thenReturn(List.of(
+                new LendingEventDTO(1L, LendingAction.SHARE, 1L, 2L, 1L, Instant.parse("2024-05-01T10:00:00Z"))
+        ));
+
+        var requestBuilder = get("/history/book?id=1");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].book_id").value(1))
+                .andExpect(jsonPath("$[0].action").value("SHARE"))
+                .andExpect(jsonPath("$[0].user_id").value(2));
+    }
+
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "ADMIN")
+    @DisplayName("Test for GET /history/user endpoint(wrong limit)")
+    void testGetUserHistory_WrongLimit() throws Exception {
+        when(friendsSharingService.getUserHistory(1L, 5000))
+                .thenThrow(new ItemException("Page size must be between 1 and 1000!"));
+
+        var requestBuilder = get("/history/user?id=1&limit=5000");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value("Page size must be between 1 and 1000!"));
+    }
+
+    @Test
+    @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "USER")
+    @DisplayName("Test for GET /history/user endpoint(wrong authority)")
+    void testGetUserHistory_WrongAuthority() throws Exception {
+        var requestBuilder = get("/history/user?id=2");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isForbidden());
+    }
+
     @Test
     @WithMockUser(username = "ignat@gmail.com", password = "center", authorities = "USER")
     @DisplayName("Validation test")
@@ -1,11 +1,26 @@
 package com.friends.sharing;
 
+import com.friends.sharing.configuration.StatementCounter;
+import com.friends.sharing.configuration.CacheConfig;
+import com.friends.sharing.configuration.security.CredentialCache;
+import com.friends.sharing.configuration.security.RateLimiter;
+import com.friends.sharing.model.User;
+import com.friends.sharing.repository.BookJdbcRepository;
+import com.friends.sharing.repository.UserRepository;
+import com.friends.sharing.service.EmailBloomFilter;
+import com.friends.sharing.service.ItemVersions;
+
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import com.jayway.jsonpath.JsonPath;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.http.MediaType;
 import org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors;
 import org.springframework.transaction.annotation.Transactional;
@@ -14,6 +29,11 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.web.servlet.request.RequestPostProcessor;
 
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.not;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -28,6 +48,30 @@ class FriendsSharingIT {
     @Autowired
     MockMvc mockMvc;
 
+    @Autowired
+    StatementCounter statementCounter;
+
+    @Autowired
+    CredentialCache credentialCache;
+
+    @Autowired
+    RateLimiter rateLimiter;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    BookJdbcRepository bookJdbcRepository;
+
+    @Autowired
+    ItemVersions itemVersions;
+
+    @Autowired
+    EmailBloomFilter emailBloomFilter;
+
     final RequestPostProcessor postProcessor = SecurityMockMvcRequestPostProcessors
             .httpBasic("ignat@gmail.com", "1234");
 
@@ -36,6 +80,16 @@ class FriendsSharingIT {
     final String createAdmin = "INSERT INTO user(user_id, name, email, password, authority) " +
             "VALUES (1, 'vlad', 'ignat@gmail.com', '$2a$10$Hzdg8upvCxY8wqZAyq79Ou1szV6sS6Xy55GmDyOqgz8ZKbMsklZ1C', 1)";
 
+    @BeforeEach
+    void evictCaches() {
+        // users are inserted by @Sql straight into the database, bypassing the cache invalidation
+        credentialCache.evictAll();
+        rateLimiter.evictAll();
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        itemVersions.changedAll();
+        emailBloomFilter.rebuild();
+    }
+
     @Test
     @DisplayName("Test for POST /register endpoint")
     void testRegisterEndpoint() throws Exception {
@@ -88,6 +142,20 @@ class FriendsSharingIT {
                 .andExpect(content().bytes("Such a user already exists!".getBytes()));
     }
 
+    @Test
+    @DisplayName("Test for unknown username rejected without a user lookup")
+    @Sql(statements = createUser)
+    void testUnknownUsername() throws Exception {
+        statementCounter.reset();
+        mockMvc.perform(get("/held")
+                        .with(SecurityMockMvcRequestPostProcessors.httpBasic("unknown@gmail.com", "1234")))
+                .andExpect(status().isUnauthorized());
+        assertThat(statementCounter.getCount()).isEqualTo(1); //the incremental refresh of the email filter
+
+        mockMvc.perform(get("/held").with(postProcessor))
+                .andExpect(status().isOk());
+    }
+
     @Test
     @DisplayName("Test for POST /book/add endpoint")
     @Sql(statements = createUser)
@@ -104,6 +172,26 @@ class FriendsSharingIT {
                 .andExpect(jsonPath("$.person.email").value("ignat@gmail.com"));
     }
 
+    @Test
+    @DisplayName("Test for POST /book/add/batch endpoint")
+    @Sql(statements = createUser)
+    void testAddBooks() throws Exception {
+        var requestBuilder = post("/book/add/batch")
+                .with(postProcessor)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"books\":[{\"author\":\"Joshua Bloch\",\"title\":\"Effective Java\"}," +
+                        "{\"author\":\"Hahaha\",\"title\":\"Python\"}]}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].title").value("Effective Java"))
+                .andExpect(jsonPath("$[1].title").value("Python"))
+                .andExpect(jsonPath("$[1].person.email").value("ignat@gmail.com"));
+
+        mockMvc.perform(get("/owned").with(postProcessor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(2));
+    }
+
     @Test
     @DisplayName("Test for GET /held endpoint")
     @Sql(statements = {createUser,
@@ -125,6 +213,113 @@ class FriendsSharingIT {
                 .andExpect(jsonPath("$.books[1].person.email").value("ignat@gmail.com"));
     }
 
+    @Test
+    @DisplayName("Test for GET /held endpoint(cached credentials)")
+    @Sql(statements = createUser)
+    void testGetHeldBooks_CachedCredentials() throws Exception {
+        mockMvc.perform(get("/held").with(postProcessor))
+                .andExpect(status().isOk());
+        long hits = credentialCache.getHits();
+
+        mockMvc.perform(get("/held").with(postProcessor))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/held").with(SecurityMockMvcRequestPostProcessors.httpBasic("ignat@gmail.com", "4321")))
+                .andExpect(status().isUnauthorized());
+
+        assertThat(credentialCache.getHits()).isEqualTo(hits + 1);
+    }
+
+    @Test
+    @DisplayName("Test for GET /held endpoint(bearer token)")
+    @Sql(statements = {createUser,
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title)" +
+                    "VALUES (1, 1, 1, 'Joshua Bloch', 'Effective Java')"
+    })
+    void testGetHeldBooks_BearerToken() throws Exception {
+        String response = mockMvc.perform(post("/token").with(postProcessor))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String token = JsonPath.read(response, "$.access_token");
+
+        statementCounter.reset();
+        mockMvc.perform(get("/held").header("Authorization", "Bearer " + token))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].title").value("Effective Java"))
+                .andExpect(jsonPath("$.books[0].person.name").value("vlad"));
+        assertThat(statementCounter.getCount()).isEqualTo(1);
+
+        mockMvc.perform(post("/token").header("Authorization", "Bearer " + token))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    @DisplayName("Test for POST /book/return/batch endpoint(bearer token, own book at home)")
+    @Sql(statements = {createUser,
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title)" +
+                    "VALUES (1, 1, 1, 'Joshua Bloch', 'Effective Java')"
+    })
+    void testReturnBooks_BearerToken_AlreadyOwner() throws Exception {
+        String response = mockMvc.perform(post("/token").with(postProcessor))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String token = JsonPath.read(response, "$.access_token");
+
+        mockMvc.perform(post("/book/return/batch").header("Authorization", "Bearer " + token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"books\":[{\"title\":\"Effective Java\"}]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].success").value(false))
+                .andExpect(jsonPath("$[0].error").value("You are the owner of this book!"));
+    }
+
+    @Test
+    @DisplayName("Test for user lookup cache")
+    @Sql(statements = createUser)
+    void testUserLookupCache() throws Exception {
+        var cache = ((CaffeineCache) cacheManager.getCache(CacheConfig.USERS_BY_EMAIL)).getNativeCache();
+        long hits = cache.stats().hitCount();
+
+        User user = userRepository.findUserByEmail("ignat@gmail.com").orElseThrow();
+        assertThat(userRepository.findUserByEmail("ignat@gmail.com")).contains(user);
+        assertThat(cache.stats().hitCount()).isEqualTo(hits + 1);
+        assertThat(userRepository.findUserByEmail("nobody@gmail.com")).isEmpty();
+        assertThat(cache.estimatedSize()).isEqualTo(1);
+
+        user.setName("vladyslav");
+        userRepository.save(user);
+
+        assertThat(cache.getIfPresent("ignat@gmail.com")).isNull();
+    }
+
+    @Test
+    @DisplayName("Test for GET /held endpoint(statement count)")
+    @Sql(statements = {createUser,
+            "INSERT INTO user(user_id, email, name, authority) VALUES (2, 'email@gmail.com', 'vadim', 0)," +
+                    "(3, 'gmail@gmail.com', 'vadim', 0)",
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title)" +
+                    "VALUES (1, 2, 1, 'Joshua Bloch', 'Effective Java'), (2, 1, 1, 'Hahaha', 'Python')," +
+                    "(3, 3, 1, 'SomeOne', 'Not Effective Java')"
+    })
+    void testGetHeldBooks_StatementCount() throws Exception {
+        var requestBuilder = get("/held").with(postProcessor);
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(3));
+
+        assertThat(statementCounter.getCount()).isEqualTo(2); //the user lookup of the sign-in and one for the books
+    }
+
+    @Test
+    @DisplayName("Test for the statement count, JdbcTemplate statements included")
+    @Sql(statements = createUser)
+    void testStatementCount_Jdbc() {
+        statementCounter.reset();
+        bookJdbcRepository.forEachBook(book -> {
+        });
+
+        assertThat(statementCounter.getCount()).isEqualTo(1);
+    }
+
     @Test
     @DisplayName("Test for GET /owned endpoint")
     @Sql(statements = {createUser,
@@ -164,6 +359,79 @@ class FriendsSharingIT {
                 .andExpect(jsonPath("$.books[1].owner_id").value(2));
     }
 
+    @Test
+    @DisplayName("Test for GET /items endpoint(cursor page)")
+    @Sql(statements = {createAdmin,
+            "INSERT INTO user(user_id, email, name, authority) VALUES (2, 'email@gmail.com', 'vadim', 0)",
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title)" +
+                    "VALUES (1, 1, 1, 'Joshua Bloch', 'Effective Java'), (2, 2, 1, 'Hahaha', 'Python')," +
+                    "(3, 2, 2, 'SomeOne', 'Not Effective Java')"
+    })
+    void testGetItemsPage() throws Exception {
+        var requestBuilder = get("/items?after=1&limit=1").with(postProcessor);
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(1))
+                .andExpect(jsonPath("$.books[0].book_id").value(2))
+                .andExpect(jsonPath("$.books[0].title").value("Python"))
+                .andExpect(jsonPath("$.next_cursor").value(2));
+    }
+
+    @Test
+    @DisplayName("Test for GET /items endpoint(ETag)")
+    @Sql(statements = {createAdmin,
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title)" +
+                    "VALUES (1, 1, 1, 'Joshua Bloch', 'Effective Java')"
+    })
+    void testGetItems_ETag() throws Exception {
+        String etag = mockMvc.perform(get("/items").with(postProcessor))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        statementCounter.reset();
+        mockMvc.perform(get("/items").with(postProcessor).header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        assertThat(statementCounter.getCount()).isEqualTo(0);
+
+        mockMvc.perform(post("/book/add")
+                        .with(postProcessor)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"author\":\"Hahaha\",\"title\":\"Python\"}"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/items").with(postProcessor).header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(etag)))
+                .andExpect(jsonPath("$.books.length()").value(2));
+        mockMvc.perform(get("/held").with(postProcessor).header("If-None-Match", etag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @DisplayName("Test for GET /items endpoint(gzip)")
+    @Sql(statements = {createAdmin,
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title)" +
+                    "VALUES (1, 1, 1, 'Joshua Bloch', 'Effective Java')"
+    })
+    void testGetItems_Gzip() throws Exception {
+        byte[] json = mockMvc.perform(get("/items").with(postProcessor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].title").value("Effective Java"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        statementCounter.reset();
+        byte[] gzip = mockMvc.perform(get("/items").with(postProcessor).header("Accept-Encoding", "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertThat(statementCounter.getCount()).isEqualTo(0);
+
+        try (var stream = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            assertThat(stream.readAllBytes()).isEqualTo(json);
+        }
+    }
+
     @Test
     @DisplayName("Test for POST /book/share endpoint")
     @Sql(statements = {createUser,
@@ -184,6 +452,53 @@ class FriendsSharingIT {
                 .andExpect(jsonPath("$.person.email").value("email@gmail.com"));
     }
 
+    @Test
+    @DisplayName("Test for GET /owned endpoint(cached, evicted by share)")
+    @Sql(statements = {createUser,
+            "INSERT INTO user(user_id, email, name, authority) VALUES (2, 'email@gmail.com', 'vadim', 0)",
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title) " +
+                    "VALUES (1, 1, 1, 'Joshua Bloch', 'Effective Java')"
+    })
+    void testGetOwnedBooks_CachedUntilShare() throws Exception {
+        mockMvc.perform(get("/owned").with(postProcessor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].person.name").value("vlad"));
+
+        statementCounter.reset();
+        mockMvc.perform(get("/owned").with(postProcessor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].person.name").value("vlad"));
+        assertThat(statementCounter.getCount()).isEqualTo(0);
+
+        mockMvc.perform(post("/book/share")
+                        .with(postProcessor)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Effective Java\",\"username\":\"email@gmail.com\"}"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/owned").with(postProcessor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].person.name").value("vadim"));
+    }
+
+    @Test
+    @DisplayName("Test for POST /book/share endpoint(title in other case)")
+    @Sql(statements = {createUser,
+            "INSERT INTO user(user_id, email, name, authority) VALUES (2, 'email@gmail.com', 'vadim', 0)",
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title) " +
+                    "VALUES (1, 1, 1, 'Joshua Bloch', 'Effective Java')"
+    })
+    void testShareBook_OtherCase() throws Exception {
+        var requestBuilder = post("/book/share")
+                .with(postProcessor)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"title\":\"  effective   JAVA\",\"username\":\"email@gmail.com\"}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.title").value("Effective Java"))
+                .andExpect(jsonPath("$.person.email").value("email@gmail.com"));
+    }
+
     @Test
     @DisplayName("Test for POST /book/share endpoint(no book)")
     @Sql(statements = createUser)
@@ -296,6 +611,33 @@ class FriendsSharingIT {
                 .andExpect(jsonPath("$.error").value("There are no users with that username!!"));
     }
 
+    @Test
+    @DisplayName("Test for POST /book/give/batch endpoint")
+    @Sql(statements = {createUser,
+            "INSERT INTO user(user_id, email, name, authority) VALUES (2, 'email@gmail.com', 'vadim', 0)",
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title) " +
+                    "VALUES (1, 1, 1, 'Joshua Bloch', 'Effective Java'), (2, 1, 1, 'Hahaha', 'Python')"
+    })
+    void testGiveBooks() throws Exception {
+        var requestBuilder = post("/book/give/batch")
+                .with(postProcessor)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"books\":[{\"title\":\"Effective Java\",\"username\":\"email@gmail.com\"}," +
+                        "{\"title\":\"Python\",\"username\":\"nobody@gmail.com\"}," +
+                        "{\"title\":\"Python\",\"username\":\"email@gmail.com\"}]}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].success").value(true))
+                .andExpect(jsonPath("$[0].book.person.name").value("vadim"))
+                .andExpect(jsonPath("$[1].success").value(false))
+                .andExpect(jsonPath("$[1].error").value("There are no users with that username!!"))
+                .andExpect(jsonPath("$[2].success").value(true));
+
+        mockMvc.perform(get("/owned").with(postProcessor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(0));
+    }
+
     @Test
     @DisplayName("Test for POST /book/return endpoint")
     @Sql(statements = {createUser,
@@ -365,6 +707,28 @@ class FriendsSharingIT {
                 .andExpect(content().bytes("Wrong id".getBytes()));
     }
 
+    @Test
+    @DisplayName("Test for DELETE /book/delete/batch endpoint")
+    @Sql(statements = {createAdmin,
+            "INSERT INTO books(book_id, owner_id, holder_id, author, title)" +
+                    "VALUES (1, 1, 1, 'Joshua Bloch', 'Effective Java'), (2, 1, 1, 'Hahaha', 'Python')," +
+                    "(3, 1, 1, 'SomeOne', 'Not Effective Java')"
+    })
+    void testDeleteBooks() throws Exception {
+        var requestBuilder = delete("/book/delete/batch")
+                .with(postProcessor)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"ids\":[1,3,4]}");
+        mockMvc.perform(requestBuilder)
+                .andExpect(status().isOk())
+                .andExpect(content().bytes("Books deleted: 2".getBytes()));
+
+        mockMvc.perform(get("/items").with(postProcessor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(1))
+                .andExpect(jsonPath("$.books[0].book_id").value(2));
+    }
+
     @Test
     @DisplayName("Test for POST /book/return/force endpoint")
     @Sql(statements = {createUser,
@@ -388,4 +752,23 @@ class FriendsSharingIT {
                 .andExpect(status().isBadRequest())
                 .andExpect(content().bytes("Wrong id".getBytes()));
     }
+
+    @Test
+    @DisplayName("Test for GET /actuator/metrics endpoint")
+    @Sql(statements = createAdmin)
+    void testRateLimitMetrics() throws Exception {
+        mockMvc.perform(post("/book/return/force?id=1").with(postProcessor)); //only the book endpoints are limited
+        mockMvc.perform(get("/actuator/metrics/friends.sharing.rate.limit.requests?tag=result:allowed")
+                        .with(postProcessor))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.measurements[0].value").value(not(0.0)));
+    }
+
+    @Test
+    @DisplayName("Test for GET /actuator/metrics endpoint(wrong authority)")
+    @Sql(statements = createUser)
+    void testRateLimitMetrics_WrongAuthority() throws Exception {
+        mockMvc.perform(get("/actuator/metrics/friends.sharing.rate.limit.requests").with(postProcessor))
+                .andExpect(status().isForbidden());
+    }
 }
@@ -0,0 +1,320 @@
+package com.friends.sharing;
+
+import com.friends.sharing.configuration.CacheConfig;
+import com.friends.sharing.configuration.Mapper;
+import com.friends.sharing.configuration.security.CredentialCache;
+import com.friends.sharing.dto.response.BookWithUserDTO;
+import com.friends.sharing.repository.BookRepository;
+import com.friends.sharing.service.EmailBloomFilter;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Load benchmark against a real server, run explicitly and once per threading mode:
+//   mvn test -Dtest=FriendsSharingLoadIT -Dspring.threads.virtual.enabled=false
+//   mvn test -Dtest=FriendsSharingLoadIT -Dspring.threads.virtual.enabled=true   (Java 21+)
+// -Dbenchmark.clients and -Dbenchmark.seconds change the load, -Dbenchmark.catalog-books the size of GET /items,
+// -Dbenchmark.held-books the books per user read by the projection benchmark.
+// Past the connection pool a request waits up to its timeout and is then answered 503, those are counted, not measured.
+@TestPropertySource(locations = {"classpath:test.properties"}, properties = {
+        "friends-sharing.rate-limit.user.capacity = 1000000",
+        "friends-sharing.rate-limit.user.refill-per-second = 1000000",
+        "friends-sharing.rate-limit.admin.capacity = 1000000",
+        "friends-sharing.rate-limit.admin.refill-per-second = 1000000"
+})
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class FriendsSharingLoadIT {
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EmailBloomFilter emailBloomFilter;
+
+    @Autowired
+    CredentialCache credentialCache;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    boolean virtualThreads;
+
+    static final long REJECTED = -1;
+
+    final int clients = Integer.getInteger("benchmark.clients", 64);
+    final int seconds = Integer.getInteger("benchmark.seconds", 10);
+    final int catalogBooks = Integer.getInteger("benchmark.catalog-books", 10_000);
+    final int heldBooks = Integer.getInteger("benchmark.held-books", 100);
+
+    final LongAdder rejected = new LongAdder();
+    final LongAdder allocatedBytes = new LongAdder();
+    final HttpClient httpClient = HttpClient.newBuilder()
+            .executor(Executors.newFixedThreadPool(clients))
+            .build();
+
+    // every client gets its own owner, friend and book, so requests only contend on the server
+    @BeforeEach
+    void createUsers() {
+        String password = "'$2a$10$Hzdg8upvCxY8wqZAyq79Ou1szV6sS6Xy55GmDyOqgz8ZKbMsklZ1C'";
+        for (int i = 0; i < clients; i++) {
+            jdbcTemplate.update("INSERT INTO user(user_id, name, email, password, authority) VALUES " +
+                    "(" + (2 * i + 1) + ", 'owner', 'owner" + i + "@gmail.com', " + password + ", 0), " +
+                    "(" + (2 * i + 2) + ", 'friend', 'friend" + i + "@gmail.com', " + password + ", 0)");
+            jdbcTemplate.update("INSERT INTO books(book_id, owner_id, holder_id, author, title) VALUES " +
+                    "(" + (i + 1) + ", " + (2 * i + 1) + ", " + (2 * i + 1) + ", 'Joshua Bloch', 'Book " + i + "')");
+        }
+        jdbcTemplate.update("INSERT INTO user(user_id, name, email, password, authority) VALUES " +
+                "(" + (2 * clients + 1) + ", 'admin', 'admin@gmail.com', " + password + ", 1)");
+        emailBloomFilter.rebuild();
+        signIn();
+    }
+
+    // one BCrypt check per user up front, later requests hit the credential cache
+    private void signIn() {
+        IntStream.range(0, clients).parallel().forEach(client -> {
+            try {
+                send(get("/held", "owner" + client));
+                send(get("/held", "friend" + client));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @AfterEach
+    void deleteUsers() {
+        jdbcTemplate.update("DELETE FROM lending_history");
+        jdbcTemplate.update("DELETE FROM books");
+        jdbcTemplate.update("DELETE FROM user");
+        credentialCache.evictAll();
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+    }
+
+    @Test
+    @DisplayName("Benchmark for GET /held endpoint")
+    void benchmarkGetHeldBooks() throws Exception {
+        report("GET /held", run(client -> {
+            cacheManager.getCache(CacheConfig.HELD_ITEMS).evict((long) (2 * client + 1)); //measure the query, not the cache
+            return send(get("/held", "owner" + client));
+        }));
+    }
+
+    @Test
+    @DisplayName("Benchmark for POST /book/share endpoint")
+    void benchmarkShareBook() throws Exception {
+        report("POST /book/share", run(client -> {
+            long start = System.nanoTime();
+            HttpResponse<String> share = httpClient.send(post("/book/share", "owner" + client,
+                    "{\"title\":\"Book " + client + "\",\"username\":\"friend" + client + "@gmail.com\"}"),
+                    HttpResponse.BodyHandlers.ofString());
+            long elapsed = System.nanoTime() - start;
+            if (share.statusCode() == 503) {
+                return REJECTED;
+            }
+            assertThat(share.statusCode()).isEqualTo(200);
+
+            //hand the book back so the next share succeeds, outside the measured time
+            HttpResponse<String> returned;
+            do {
+                returned = httpClient.send(post("/book/return", "friend" + client,
+                        "{\"title\":\"Book " + client + "\"}"), HttpResponse.BodyHandlers.ofString());
+            } while (returned.statusCode() == 503);
+            assertThat(returned.statusCode()).isEqualTo(200);
+            return elapsed;
+        }));
+    }
+
+    // the catalog is served from bytes serialized once, so this measures the copy out, plain and compressed
+    @Test
+    @DisplayName("Benchmark for GET /items endpoint")
+    void benchmarkGetItems() throws Exception {
+        jdbcTemplate.batchUpdate("INSERT INTO books(book_id, owner_id, holder_id, author, title) VALUES (?, 1, 1, ?, ?)",
+                IntStream.range(0, catalogBooks)
+                        .mapToObj(i -> new Object[]{clients + i + 1, "Author " + i, "Catalog book " + i})
+                        .toList());
+        send(get("/items", "admin"));
+
+        for (String acceptEncoding : List.of("identity", "gzip")) {
+            HttpRequest request = request("/items", "admin").header("Accept-Encoding", acceptEncoding).GET().build();
+            report("GET /items " + acceptEncoding + " (" + (clients + catalogBooks) + " books)",
+                    run(client -> send(request)));
+        }
+    }
+
+    // the held books read as DTOs straight from the query, against entities with both users mapped afterwards;
+    // called in-process, so the allocation of the calling thread covers the whole read
+    @Test
+    @DisplayName("Benchmark for the held books projection")
+    void benchmarkHeldBooksProjection() throws Exception {
+        jdbcTemplate.batchUpdate("INSERT INTO books(book_id, owner_id, holder_id, author, title) VALUES (?, ?, ?, ?, ?)",
+                IntStream.range(0, clients * heldBooks)
+                        .mapToObj(i -> new Object[]{clients + i + 1, 2 * (i / heldBooks) + 2, 2 * (i / heldBooks) + 1,
+                                "Author " + i, "Held book " + i})
+                        .toList());
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        Map<String, Call> reads = new LinkedHashMap<>();
+        reads.put("findHeldBookDTOs", client -> measure(() -> readOnly.execute(status ->
+                bookRepository.findHeldBookDTOs((long) (2 * client + 1)))));
+        reads.put("findHeldBooks + Mapper", client -> measure(() -> readOnly.execute(status ->
+                bookRepository.findHeldBooks((long) (2 * client + 1)).stream()
+                        .map(book -> Mapper.mapToBookWithUserDTO(book, book.getOwner()))
+                        .toList())));
+
+        for (Map.Entry<String, Call> read : reads.entrySet()) {
+            Result result = run(read.getValue());
+            report(read.getKey() + " (" + (heldBooks + 1) + " books)", result);
+            System.out.printf(Locale.ROOT, "%s: %d KB allocated per call%n",
+                    read.getKey(), allocatedBytes.sum() / result.sortedLatencies().length / 1024);
+        }
+    }
+
+    private long measure(Callable<List<BookWithUserDTO>> read) throws Exception {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        List<BookWithUserDTO> books = read.call();
+        long elapsed = System.nanoTime() - start;
+        allocatedBytes.add(threads.getCurrentThreadAllocatedBytes() - allocated);
+        assertThat(books).hasSize(heldBooks + 1);
+        return elapsed;
+    }
+
+    interface Call {
+        // REJECTED when the server answered 503
+        long latencyNanos(int client) throws Exception;
+    }
+
+    record Result(long[] sortedLatencies, long rejected, long elapsedNanos) {
+    }
+
+    private Result run(Call call) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            // warm up: JIT, connection pool
+            invokeAll(executor, call, System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(2, seconds / 3)));
+
+            rejected.reset();
+            allocatedBytes.reset();
+            long start = System.nanoTime();
+            List<long[]> latencies = invokeAll(executor, call, start + TimeUnit.SECONDS.toNanos(seconds));
+            long elapsed = System.nanoTime() - start;
+
+            return new Result(latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray(), rejected.sum(),
+                    elapsed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<long[]> invokeAll(ExecutorService executor, Call call, long deadline) throws Exception {
+        List<Future<long[]>> futures = executor.invokeAll(IntStream.range(0, clients)
+                .<Callable<long[]>>mapToObj(client -> () -> {
+                    long[] latencies = new long[1024];
+                    int count = 0;
+                    while (System.nanoTime() < deadline) {
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        long latency = call.latencyNanos(client);
+                        if (latency == REJECTED) {
+                            rejected.increment();
+                        } else {
+                            latencies[count++] = latency;
+                        }
+                    }
+                    return Arrays.copyOf(latencies, count);
+                })
+                .toList());
+
+        List<long[]> latencies = new ArrayList<>();
+        for (Future<long[]> future : futures) {
+            latencies.add(future.get());
+        }
+        return latencies;
+    }
+
+    private void report(String endpoint, Result result) {
+        long[] latencies = result.sortedLatencies();
+        int count = latencies.length;
+        double seconds = result.elapsedNanos() / 1e9;
+        assertThat(count).isPositive();
+
+        System.out.printf(Locale.ROOT, "%s, %s threads, %d clients: %d requests, %.0f req/s, %d rejected with 503, " +
+                        "p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms%n",
+                endpoint, virtualThreads ? "virtual" : "platform", clients, count, count / seconds, result.rejected(),
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                latencies[count - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)] / 1e6;
+    }
+
+    private long send(HttpRequest request) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        long elapsed = System.nanoTime() - start;
+        if (response.statusCode() == 503) {
+            return REJECTED;
+        }
+        assertThat(response.statusCode()).isEqualTo(200);
+        return elapsed;
+    }
+
+    private HttpRequest get(String path, String user) {
+        return request(path, user).GET().build();
+    }
+
+    private HttpRequest post(String path, String user, String json) {
+        return request(path, user)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private HttpRequest.Builder request(String path, String user) {
+        String credentials = user + "@gmail.com:1234";
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Authorization", "Basic " +
+                        Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -1,29 +1,67 @@
 package com.friends.sharing;
 
+import com.friends.sharing.configuration.ReadWriteRoutingDataSource;
 import com.friends.sharing.configuration.security.Authorities;
+import com.friends.sharing.dto.response.BookDTO;
+import com.friends.sharing.dto.response.BookUsersDTO;
+import com.friends.sharing.dto.response.BookWithUserDTO;
+import com.friends.sharing.dto.response.LendingEventDTO;
+import com.friends.sharing.dto.response.UserDTO;
 import com.friends.sharing.model.Book;
+import com.friends.sharing.model.LendingAction;
+import com.friends.sharing.model.LendingEvent;
 import com.friends.sharing.model.Present;
 import com.friends.sharing.model.User;
+import com.friends.sharing.repository.BookJdbcRepository;
 import com.friends.sharing.repository.BookRepository;
+import com.friends.sharing.repository.LendingHistoryJdbcRepository;
+import com.friends.sharing.repository.LendingHistoryRepository;
 import com.friends.sharing.repository.PresentRepository;
 import com.friends.sharing.repository.UserRepository;
 
 import org.assertj.core.data.Index;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.jdbc.Sql;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 
 @DataJpaTest
-@TestPropertySource(locations = {"classpath:test.properties"}) //for tests, it is better to use H2 db
+@Import({BookJdbcRepository.class, LendingHistoryJdbcRepository.class})
+@TestPropertySource(locations = {"classpath:test.properties"}, //for tests, it is better to use H2 db
+        properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector = " +
+                "com.friends.sharing.FriendsSharingRepositoryTest$RecordedStatements")
 public class FriendsSharingRepositoryTest {
     @Autowired
     BookRepository bookRepository;
@@ -34,9 +72,21 @@ public class FriendsSharingRepositoryTest {
     @Autowired
     PresentRepository presentRepository;
 
+    @Autowired
+    BookJdbcRepository bookJdbcRepository;
+
+    @Autowired
+    LendingHistoryRepository lendingHistoryRepository;
+
+    @Autowired
+    LendingHistoryJdbcRepository lendingHistoryJdbcRepository;
+
     @Autowired
     TestEntityManager entityManager;
 
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
     @Test
     @DisplayName("Test for save() method in UserRepository")
     void saveTest_UserRepository() {
@@ -177,6 +227,305 @@ public class FriendsSharingRepositoryTest {
                 .contains(expectAtIndexOne, Index.atIndex(1));
     }
 
+    @Test
+    @DisplayName("Test for findOwnedBookByTitle() method in BookRepository")
+    @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
+                "VALUES (1, 'vadim', 'email@gmail.com', '1234', 0), (2, 'vlad', 'gmail@gmail.com', '1234', 0)",
+            "INSERT INTO books(book_id, title, author, holder_id, owner_id) " +
+                "VALUES (1, 'Effective Java', 'Joshua Bloch', 2, 1)," +
+                    "(2, 'Effective  Java ', 'Joshua Bloch', 1, 1), (3, 'Effective Java', 'Joshua Bloch', 2, 2)"})
+    void findOwnedBookByTitleTest_BookRepository() {
+        Optional<Book> actual = bookRepository.findOwnedBookByTitle(1L, " effective java");
+        assertThat(actual)
+                .isPresent()
+                .get()
+                .extracting(Book::getBook_id)
+                .isEqualTo(2L);
+    }
+
+    @Test
+    @DisplayName("Test for findHeldBookUsersByTitle() method in BookRepository")
+    @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
+                "VALUES (1, 'vadim', 'email@gmail.com', '1234', 0), (2, 'vlad', 'gmail@gmail.com', '1234', 0)",
+            "INSERT INTO books(book_id, title, author, holder_id, owner_id) " +
+                "VALUES (1, 'Effective Java', 'Joshua Bloch', 1, 1)," +
+                    "(2, 'EFFECTIVE JAVA', 'Joshua Bloch', 1, 2), (3, 'Python', 'Hahaha', 1, 2)"})
+    void findHeldBookUsersByTitleTest_BookRepository() {
+        Optional<BookUsersDTO> actual = bookRepository.findHeldBookUsersByTitle(1L, "Effective Java");
+        assertThat(actual)
+                .isPresent()
+                .get()
+                .isEqualTo(new BookUsersDTO(2L, 1L, 2L));
+    }
+
+    @Test
+    @DisplayName("Test for findBookUsers() method in BookRepository")
+    @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
+                "VALUES (1, 'vadim', 'email@gmail.com', '1234', 0), (2, 'vlad', 'gmail@gmail.com', '1234', 0)",
+            "INSERT INTO books(book_id, title, author, holder_id, owner_id) " +
+                "VALUES (1, 'Effective Java', 'Joshua Bloch', 1, 2)"})
+    void findBookUsersTest_BookRepository() {
+        assertThat(bookRepository.findBookUsers(1L))
+                .contains(new BookUsersDTO(1L, 1L, 2L));
+        assertThat(bookRepository.findBookUsers(2L))
+                .isEmpty();
+    }
+
+    @Test
+    @DisplayName("Test for returnBookFromHolder() method in BookRepository")
+    @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
+                "VALUES (1, 'vadim', 'email@gmail.com', '1234', 0), (2, 'vlad', 'gmail@gmail.com', '1234', 0)",
+            "INSERT INTO books(book_id, title, author, holder_id, owner_id) " +
+                "VALUES (1, 'Effective Java', 'Joshua Bloch', 1, 1)," +
+                    "(2, 'Effective Java', 'Joshua Bloch', 1, 2), (3, 'Effective Java', 'Joshua Bloch', 1, 2)"})
+    void returnBookFromHolderTest_BookRepository() {
+        assertThat(bookRepository.returnBookFromHolder(2L, 1L)).isEqualTo(1);
+        assertThat(bookRepository.findHeldBooks(1L))
+                .extracting(Book::getBook_id)
+                .containsExactly(1L, 3L);
+
+        assertThat(bookRepository.returnBookFromHolder(2L, 1L)).isEqualTo(0); //already returned
+        assertThat(bookRepository.returnBookFromHolder(1L, 1L)).isEqualTo(0); //own copy
+        assertThat(bookRepository.returnBookFromHolder(3L, 2L)).isEqualTo(0); //not the holder
+    }
+
+    @Test
+    @DisplayName("Test for optimistic locking of Book in BookRepository")
+    @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
+                "VALUES (1, 'vadim', 'email@gmail.com', '1234', 0), (2, 'vlad', 'gmail@gmail.com', '1234', 0)",
+            "INSERT INTO books(book_id, title, author, holder_id, owner_id) " +
+                "VALUES (1, 'Effective Java', 'Joshua Bloch', 1, 2)"})
+    void optimisticLockingTest_BookRepository() {
+        Book stale = bookRepository.findById(1L).orElseThrow();
+        assertThat(stale.getVersion()).isEqualTo(0);
+
+        bookRepository.returnBookFromHolder(1L, 1L); //a concurrent change, also detaches the book
+        stale.setHolder(stale.getOwner());
+
+        assertThatThrownBy(() -> bookRepository.saveAndFlush(stale))
+                .isInstanceOf(ObjectOptimisticLockingFailureException.class);
+    }
+
+    @Test
+    @DisplayName("Test for findHeldBookDTOs() method in BookRepository")
+    @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
+                "VALUES (1, 'vadim', 'email@gmail.com', '1234', 0), (2, 'vlad', 'gmail@gmail.com', '1234', 0)",
+            "INSERT INTO books(book_id, title, author, holder_id, owner_id) " +
+                "VALUES (1, 'Effective Java', 'Joshua Bloch', 1, 1)," +
+                    "(2, 'Not Effective Java', 'SomeOne', 1, 2), (3, 'Python', 'Hahaha', 2, 2)"})
+    void findHeldBookDTOsTest_BookRepository() {
+        var expectAtIndexZero = new BookWithUserDTO("Joshua Bloch", "Effective Java", new UserDTO("vadim", "email@gmail.com"));
+        var expectAtIndexOne = new BookWithUserDTO("SomeOne", "Not Effective Java", new UserDTO("vlad", "gmail@gmail.com"));
+
+        List<BookWithUserDTO> actual = bookRepository.findHeldBookDTOs(1L);
+        assertThat(actual)
+                .hasSize(2)
+                .contains(expectAtIndexZero, Index.atIndex(0))
+                .contains(expectAtIndexOne, Index.atIndex(1));
+    }
+
+    // the SQL Hibernate sent for findHeldBookDTOs/findOwnedBookDTOs, the plan must not grow with the table
+    @Test
+    @DisplayName("Test for the held and owned books plans in BookRepository")
+    void heldAndOwnedBooksPlanTest_BookRepository() {
+        jdbcTemplate.batchUpdate("INSERT INTO user(user_id, name, email, password, authority) " +
+                        "VALUES (?, 'vadim', ?, '1234', 0)",
+                LongStream.rangeClosed(1, 100).mapToObj(id -> new Object[]{id, id + "@gmail.com"}).toList());
+        jdbcTemplate.batchUpdate("INSERT INTO books(book_id, title, author, holder_id, owner_id) " +
+                        "VALUES (?, ?, 'SomeOne', ?, ?)",
+                LongStream.rangeClosed(1, 5000)
+                        .mapToObj(id -> new Object[]{id, "Book " + id, id % 100 + 1, (id * 7) % 100 + 1})
+                        .toList());
+
+        assertThat(plan(() -> bookRepository.findHeldBookDTOs(1L)))
+                .containsEntry("key", "idx_books_holder_title");
+        assertThat(plan(() -> bookRepository.findOwnedBookDTOs(1L)))
+                .containsEntry("key", "idx_books_owner_title");
+    }
+
+    // the plan row of the books table in the statement the query sent, with 1 for every parameter
+    private Map<String, Object> plan(Runnable query) {
+        RecordedStatements.STATEMENTS.clear();
+        query.run();
+        assertThat(RecordedStatements.STATEMENTS).hasSize(1);
+        String sql = RecordedStatements.STATEMENTS.get(0);
+        Matcher books = Pattern.compile("from books (\\w+)").matcher(sql);
+        assertThat(books.find()).isTrue();
+
+        return jdbcTemplate.queryForList("EXPLAIN " + sql.replace("?", "1")).stream()
+                .filter(row -> books.group(1).equals(row.get("table")))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    public static class RecordedStatements implements StatementInspector {
+        static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+
+    @Test
+    @DisplayName("Test for findAllBookDTOs() method in BookRepository")
+    @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
+                "VALUES (1, 'vadim', 'email@gmail.com', '1234', 0), (2, 'vlad', 'gmail@gmail.com', '1234', 0)",
+            "INSERT INTO books(book_id, title, author, holder_id, owner_id) " +
+                "VALUES (1, 'Effective Java', 'Joshua Bloch', 2, 1), (2, 'Python', 'Hahaha', 2, 2)"})
+    void findAllBookDTOsTest_BookRepository() {
+        var expectAtIndexZero = new BookDTO(1L, "Joshua Bloch", "Effective Java", 2L, 1L);
+        var expectAtIndexOne = new BookDTO(2L, "Hahaha", "Python", 2L, 2L);
+
+        List<BookDTO> actual = bookRepository.findAllBookDTOs();
+        assertThat(actual)
+                .hasSize(2)
+                .contains(expectAtIndexZero, Index.atIndex(0))
+                .contains(expectAtIndexOne, Index.atIndex(1));
+    }
+
+    @Test
+    @DisplayName("Test for forEachBook() method in BookJdbcRepository")
+    @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
+                "VALUES (1, 'vadim', 'email@gmail.com', '1234', 0), (2, 'vlad', 'gmail@gmail.com', '1234', 0)",
+            "INSERT INTO books(book_id, title, author, holder_id, owner_id) " +
+                "VALUES (2, 'Not Effective Java', 'SomeOne', 1, 2), (1, 'Effective Java', 'Joshua Bloch', 1, 1)"})
+    void forEachBookTest_BookJdbcRepository() {
+        var expectAtIndexZero = BookDTO.builder()
+                .book_id(1L)
+                .title("Effective Java")
+                .author("Joshua Bloch")
+                .holder_id(1L)
+                .owner_id(1L)
+                .build();
+        var expectAtIndexOne = BookDTO.builder()
+                .book_id(2L)
+                .title("Not Effective Java")
+                .author("SomeOne")
+                .holder_id(1L)
+                .owner_id(2L)
+                .build();
+
+        List<BookDTO> actual = new ArrayList<>();
+        bookJdbcRepository.forEachBook(actual::add);
+        assertThat(actual)
+                .hasSize(2)
+                .contains(expectAtIndexZero, Index.atIndex(0))
+                .contains(expectAtIndexOne, Index.atIndex(1));
+    }
+
+    @Test
+    @DisplayName("Test for insertBooks() method in BookJdbcRepository")
+    @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
+            "VALUES (1, 'vadim', 'email@gmail.com', '1234', 0)"})
+    void insertBooksTest_BookJdbcRepository() {
+        var user = User.builder()
+                .user_id(1L)
+                .name("vadim")
+                .email("email@gmail.com")
+                .password("1234")
+                .authority(Authorities.USER)
+                .build();
+
+        bookJdbcRepository.insertBooks(List.of(
+                Book.builder().title("Effective Java").author("Joshua Bloch").holder(user).owner(user).build(),
+                Book.builder().title("Python").author("Hahaha").holder(user).owner(user).build()));
+
+        assertThat(bookRepository.findOwnedBooks(1L))
+                .extracting(Book::getTitle)
+                .containsExactly("Effective Java", "Python");
+    }
+
+    @Test
+    @DisplayName("Test for insertEvents() method in LendingHistoryJdbcRepository")
+    void insertEventsTest_LendingHistoryJdbcRepository() {
+        var time = Instant.parse("2024-05-01T10:15:30.123456Z");
+
+        lendingHistoryJdbcRepository.insertEvents(List.of(
+                LendingEvent.builder().book_id(1L).action(LendingAction.SHARE)
+                        .from_user_id(1L).user_id(2L).owner_id(1L).time(time).build(),
+                LendingEvent.builder().book_id(1L).action(LendingAction.RETURN)
+                        .from_user_id(2L).user_id(1L).owner_id(1L).time(time.plusSeconds(60)).build()));
+
+        assertThat(lendingHistoryRepository.findBookHistory(1L, Limit.of(10)))
+                .extracting(LendingEventDTO::getAction, LendingEventDTO::getTime)
+                .containsExactly(tuple(LendingAction.RETURN, time.plusSeconds(60)), tuple(LendingAction.SHARE, time));
+    }
+
+    @Test
+    @DisplayName("Test for findBookHistory() method in LendingHistoryRepository")
+    @Sql(statements = {"INSERT INTO lending_history(book_id, action, from_user_id, user_id, owner_id, time) VALUES " +
+            "(1, 'SHARE', 1, 2, 1, '2024-05-01 10:00:00'), (2, 'SHARE', 1, 3, 1, '2024-05-01 11:00:00'), " +
+            "(1, 'RETURN', 2, 1, 1, '2024-05-01 12:00:00'), (1, 'GIVE', 1, 3, 3, '2024-05-01 13:00:00')"})
+    void findBookHistoryTest_LendingHistoryRepository() {
+        assertThat(lendingHistoryRepository.findBookHistory(1L, Limit.of(2)))
+                .extracting(LendingEventDTO::getAction, LendingEventDTO::getUser_id)
+                .containsExactly(tuple(LendingAction.GIVE, 3L), tuple(LendingAction.RETURN, 1L));
+    }
+
+    @Test
+    @DisplayName("Test for findReceivedHistory() and findHandedOverHistory() methods in LendingHistoryRepository")
+    @Sql(statements = {"INSERT INTO lending_history(book_id, action, from_user_id, user_id, owner_id, time) VALUES " +
+            "(1, 'SHARE', 1, 2, 1, '2024-05-01 10:00:00'), (2, 'SHARE', 3, 1, 3, '2024-05-01 11:00:00'), " +
+            "(1, 'RETURN', 2, 1, 1, '2024-05-01 12:00:00'), (3, 'SHARE', 1, 1, 1, '2024-05-01 13:00:00')"})
+    void findUserHistoryTest_LendingHistoryRepository() {
+        assertThat(lendingHistoryRepository.findReceivedHistory(1L, Limit.of(10)))
+                .extracting(LendingEventDTO::getBook_id, LendingEventDTO::getAction)
+                .containsExactly(tuple(3L, LendingAction.SHARE), tuple(1L, LendingAction.RETURN),
+                        tuple(2L, LendingAction.SHARE));
+        assertThat(lendingHistoryRepository.findHandedOverHistory(1L, Limit.of(10)))
+                .extracting(LendingEventDTO::getBook_id, LendingEventDTO::getAction)
+                .containsExactly(tuple(1L, LendingAction.SHARE)); //the book shared with oneself is already received
+    }
+
+    @Test
+    @DisplayName("Test for ReadWriteRoutingDataSource")
+    void routingTest_ReadWriteRoutingDataSource() {
+        EmbeddedDatabase primary = embeddedDatabase("primary");
+        EmbeddedDatabase replica = embeddedDatabase("replica");
+        try {
+            var dataSource = new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(primary, replica));
+            // the JPA transaction manager the application runs with, it prepares the connection before the first statement
+            var entityManagerFactoryBean = new LocalContainerEntityManagerFactoryBean();
+            entityManagerFactoryBean.setDataSource(dataSource);
+            entityManagerFactoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+            entityManagerFactoryBean.setPackagesToScan(Book.class.getPackageName());
+            entityManagerFactoryBean.afterPropertiesSet();
+            var entityManagerFactory = entityManagerFactoryBean.getObject();
+            var entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+            var transactionManager = new JpaTransactionManager(entityManagerFactory);
+            var writes = new TransactionTemplate(transactionManager);
+            var reads = new TransactionTemplate(transactionManager);
+            reads.setReadOnly(true);
+            Supplier<String> source = () -> (String) entityManager.createNativeQuery("SELECT name FROM source")
+                    .getSingleResult();
+
+            String write = writes.execute(status -> source.get());
+            String read = reads.execute(status -> source.get());
+            String pinnedRead = reads.execute(status -> ReadWriteRoutingDataSource.onPrimary(source));
+
+            assertThat(write).isEqualTo("primary");
+            assertThat(read).isEqualTo("replica");
+            assertThat(pinnedRead).isEqualTo("primary");
+            assertThat(source.get()).isEqualTo("primary"); //no transaction
+            entityManagerFactoryBean.destroy();
+        } finally {
+            primary.shutdown();
+            replica.shutdown();
+        }
+    }
+
+    private static EmbeddedDatabase embeddedDatabase(String name) {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName(name)
+                .build();
+        new JdbcTemplate(database).execute("CREATE TABLE source(name VARCHAR(16)); " +
+                "INSERT INTO source VALUES ('" + name + "')");
+        return database;
+    }
+
     /*@Test
     @DisplayName("Test for save() method in PresentRepository")
     @Sql(statements = {"INSERT INTO user(user_id, name, email, password, authority) " +
@@ -1,30 +1,84 @@
 package com.friends.sharing;
 
+import com.friends.sharing.configuration.CacheConfig;
+import com.friends.sharing.configuration.ReadWriteRoutingDataSource;
+import com.friends.sharing.configuration.StatementCounter;
 import com.friends.sharing.configuration.security.Authorities;
 import com.friends.sharing.dto.request.AddBookRequest;
+import com.friends.sharing.dto.request.AddBooksRequest;
+import com.friends.sharing.dto.request.DeleteBooksRequest;
+import com.friends.sharing.dto.request.GiveBooksRequest;
 import com.friends.sharing.dto.request.GiveBookRequest;
 import com.friends.sharing.dto.request.ReturnBookRequest;
+import com.friends.sharing.dto.request.ReturnBooksRequest;
 import com.friends.sharing.dto.response.*;
 import com.friends.sharing.exception.ItemException;
 import com.friends.sharing.model.Book;
+import com.friends.sharing.model.LendingAction;
+import com.friends.sharing.model.LendingEvent;
 import com.friends.sharing.model.User;
+import com.friends.sharing.repository.BookJdbcRepository;
 import com.friends.sharing.repository.BookRepository;
+import com.friends.sharing.repository.LendingHistoryJdbcRepository;
+import com.friends.sharing.repository.LendingHistoryRepository;
 import com.friends.sharing.repository.UserRepository;
+import com.friends.sharing.service.BookShards;
 import com.friends.sharing.service.FriendsSharingService;
+import com.friends.sharing.service.ItemVersions;
+import com.friends.sharing.service.LendingHistory;
+import com.friends.sharing.service.ReadYourWrites;
+import com.friends.sharing.service.SerializedItemsCache;
+import com.friends.sharing.service.TransferRetry;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.assertj.core.groups.Tuple;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.LongStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 
 @ExtendWith(MockitoExtension.class)
 public class FriendsSharingServiceTest {
@@ -32,6 +86,26 @@ public class FriendsSharingServiceTest {
     UserRepository userRepository;
     @Mock
     BookRepository bookRepository;
+    @Mock
+    BookJdbcRepository bookJdbcRepository;
+    @Spy
+    ObjectMapper objectMapper = new ObjectMapper();
+    @Spy
+    ItemVersions itemVersions = new ItemVersions();
+    AtomicLong ticker = new AtomicLong();
+    @Spy
+    ReadYourWrites readYourWrites = new ReadYourWrites(Duration.ofSeconds(2), 100, ticker::get);
+    @Spy
+    CacheManager cacheManager = new ConcurrentMapCacheManager(CacheConfig.HELD_ITEMS, CacheConfig.OWNED_ITEMS);
+    @Mock
+    LendingHistory lendingHistory;
+    @Mock
+    LendingHistoryRepository lendingHistoryRepository;
+    @Spy
+    TransferRetry transferRetry = new TransferRetry(mock(PlatformTransactionManager.class), 3, 0);
+    @Spy
+    BookShards bookShards = new BookShards(Optional.empty(), mock(JdbcTemplate.class), mock(PlatformTransactionManager.class),
+            new StatementCounter(), 1, 100);
 
     @InjectMocks
     FriendsSharingService friendsSharingService;
@@ -57,6 +131,29 @@ public class FriendsSharingServiceTest {
                 .isEqualTo(expect);
     }
 
+    @Test
+    @DisplayName("Test for addBooks() method")
+    void testAddBooks() {
+        var request = new AddBooksRequest(List.of(
+                new AddBookRequest("Joshua Bloch", "Effective Java"),
+                new AddBookRequest("Hahaha", "Python")
+        ));
+
+        var person = UserDTO.builder()
+                .name("vadim")
+                .email("email@gmail.com")
+                .build();
+        var expect = List.of(
+                new BookWithUserDTO("Joshua Bloch", "Effective Java", person),
+                new BookWithUserDTO("Hahaha", "Python", person));
+
+        assertThat(friendsSharingService.addBooks(request, user))
+                .isEqualTo(expect);
+        verify(bookJdbcRepository).insertBooks(List.of(
+                Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build(),
+                Book.builder().author("Hahaha").title("Python").holder(user).owner(user).build()));
+    }
+
     @Test
     @DisplayName("Test for getHeldItems() method")
     void testGetHeldItems() {
@@ -78,10 +175,9 @@ public class FriendsSharingServiceTest {
                 .build();
         var expect = ItemsWithUser.builder().books(List.of(expectOne, expectTwo)).build();
 
-        when(bookRepository.findHeldBooks(1L)).thenReturn(List.of(
-                Book.builder().author("Joshua Bloch").title("Effective Java").owner(user).build(),
-                Book.builder().author("Hahaha").title("Python").owner(
-                        User.builder().name("vlad").email("ignat@gmail.com").build()).build()
+        when(bookRepository.findHeldBookDTOs(1L)).thenReturn(List.of(
+                new BookWithUserDTO("Joshua Bloch", "Effective Java", new UserDTO("vadim", "email@gmail.com")),
+                new BookWithUserDTO("Hahaha", "Python", new UserDTO("vlad", "ignat@gmail.com"))
         ));
 
         assertThat(friendsSharingService.getHeldItems(user))
@@ -101,8 +197,8 @@ public class FriendsSharingServiceTest {
                 .build();
         var expect = ItemsWithUser.builder().books(List.of(expectOne)).build();
 
-        when(bookRepository.findOwnedBooks(1L)).thenReturn(List.of(
-                Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).build()
+        when(bookRepository.findOwnedBookDTOs(1L)).thenReturn(List.of(
+                new BookWithUserDTO("Joshua Bloch", "Effective Java", new UserDTO("vadim", "email@gmail.com"))
         ));
 
         assertThat(friendsSharingService.getOwnedItems(user))
@@ -128,16 +224,137 @@ public class FriendsSharingServiceTest {
                 .build();
         var expect = Items.builder().books(List.of(expectOne, expectTwo)).build();
 
-        when(bookRepository.findAll()).thenReturn(List.of(
-                Book.builder().book_id(1L).author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build(),
-                Book.builder().book_id(2L).author("Someone").title("Not Effective Java").holder(user).owner(
-                        User.builder().user_id(2L).build()).build()
-        ));
+        when(bookRepository.findAllBookDTOs()).thenReturn(List.of(expectOne, expectTwo));
 
         assertThat(friendsSharingService.getItems())
                 .isEqualTo(expect);
     }
 
+    @Test
+    @DisplayName("Test for SerializedItemsCache")
+    void testSerializedItemsCache() throws Exception {
+        var book = BookDTO.builder().book_id(1L).author("Joshua Bloch").title("Effective Java")
+                .holder_id(1L).owner_id(1L).build();
+        var serializedItemsCache = new SerializedItemsCache(friendsSharingService, objectMapper, itemVersions);
+
+        when(bookRepository.findAllBookDTOs()).thenReturn(List.of(book));
+
+        var first = serializedItemsCache.get();
+        var second = serializedItemsCache.get();
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.etag()).isEqualTo(friendsSharingService.getItemsETag());
+        assertThat(objectMapper.readTree(first.json()).at("/books/0/title").asText()).isEqualTo("Effective Java");
+        try (var gzip = new GZIPInputStream(new ByteArrayInputStream(first.gzip()))) {
+            assertThat(gzip.readAllBytes()).isEqualTo(first.json());
+        }
+        verify(bookRepository, times(1)).findAllBookDTOs();
+
+        itemVersions.changed(List.of(1L));
+
+        ticker.addAndGet(Duration.ofMinutes(10).toNanos());
+        var third = serializedItemsCache.get();
+        assertThat(third).isNotSameAs(first);
+        assertThat(serializedItemsCache.get()).isSameAs(third); //kept until the next change
+        verify(bookRepository, times(2)).findAllBookDTOs();
+    }
+
+    @Test
+    @DisplayName("Test for SerializedItemsCache(rebuilt on the primary after a change)")
+    void testSerializedItemsCache_Replica() {
+        var serializedItemsCache = new SerializedItemsCache(friendsSharingService, objectMapper, itemVersions);
+        List<Boolean> onPrimary = new ArrayList<>();
+        when(bookRepository.findAllBookDTOs()).thenAnswer(invocation -> {
+            onPrimary.add(ReadWriteRoutingDataSource.isPinnedToPrimary());
+            return List.of();
+        });
+        when(bookRepository.findBookUsers(1L)).thenReturn(Optional.of(new BookUsersDTO(1L, 2L, 1L)));
+        when(bookRepository.returnBookFromHolder(1L, 2L)).thenReturn(1);
+
+        var first = serializedItemsCache.get();
+        ticker.addAndGet(Duration.ofMinutes(10).toNanos());
+        assertThat(serializedItemsCache.get()).isSameAs(first); //older than the read-your-writes window, still current
+
+        friendsSharingService.forceReturnBook(1L);
+        var second = serializedItemsCache.get();
+        ticker.addAndGet(Duration.ofSeconds(3).toNanos());
+
+        assertThat(second).isNotSameAs(first);
+        assertThat(serializedItemsCache.get()).isSameAs(second);
+        assertThat(onPrimary).containsExactly(false, true);
+    }
+
+    @Test
+    @DisplayName("Test for getItems() method(cursor page)")
+    void testGetItemsPage() {
+        var expectOne = BookDTO.builder()
+                .book_id(2L)
+                .author("Someone")
+                .title("Not Effective Java")
+                .holder_id(1L)
+                .owner_id(1L)
+                .build();
+        var expect = Items.builder().books(List.of(expectOne)).next_cursor(2L).build();
+
+        when(bookRepository.findBookDTOsAfter(1L, Limit.of(2))).thenReturn(List.of(
+                expectOne,
+                new BookDTO(3L, "Hahaha", "Python", 1L, 1L)
+        ));
+
+        assertThat(friendsSharingService.getItems(1L, 1))
+                .isEqualTo(expect);
+    }
+
+    @Test
+    @DisplayName("Test for getItems() method(last page)")
+    void testGetItemsPage_LastPage() {
+        var expectOne = BookDTO.builder()
+                .book_id(3L)
+                .author("Hahaha")
+                .title("Python")
+                .holder_id(1L)
+                .owner_id(1L)
+                .build();
+        var expect = Items.builder().books(List.of(expectOne)).build();
+
+        when(bookRepository.findBookDTOsAfter(2L, Limit.of(11))).thenReturn(List.of(expectOne));
+
+        assertThat(friendsSharingService.getItems(2L, 10))
+                .isEqualTo(expect);
+    }
+
+    @Test
+    @DisplayName("Test for getItems() method(wrong page size)")
+    void testGetItemsPage_WrongLimit() {
+        assertThatThrownBy(() -> friendsSharingService.getItems(null, 0))
+                .isInstanceOf(ItemException.class)
+                .hasMessage("Page size must be between 1 and 1000!");
+    }
+
+    @Test
+    @DisplayName("Test for exportBooks() method")
+    void testExportBooks() throws Exception {
+        var bookOne = BookDTO.builder().book_id(1L).author("Joshua Bloch").title("Effective Java")
+                .holder_id(1L).owner_id(1L).build();
+        var bookTwo = BookDTO.builder().book_id(2L).author("Hahaha").title("Python")
+                .holder_id(1L).owner_id(2L).build();
+
+        doAnswer(invocation -> {
+            Consumer<BookDTO> action = invocation.getArgument(0);
+            action.accept(bookOne);
+            action.accept(bookTwo);
+            return null;
+        }).when(bookJdbcRepository).forEachBook(any());
+
+        var outputStream = new ByteArrayOutputStream();
+        friendsSharingService.exportBooks(outputStream);
+
+        assertThat(outputStream.toString()).isEqualTo("""
+                {"book_id":1,"author":"Joshua Bloch","title":"Effective Java","holder_id":1,"owner_id":1}
+                {"book_id":2,"author":"Hahaha","title":"Python","holder_id":1,"owner_id":2}
+                """);
+    }
+
     @Test
     @DisplayName("Test for shareBook() method")
     void testShareBook() {
@@ -152,15 +369,25 @@ public class FriendsSharingServiceTest {
                         .build())
                 .build();
 
-        when(bookRepository.findOwnedBooks(1L)).thenReturn(List.of(
+        when(bookRepository.findOwnedBookByTitle(1L, "Effective Java")).thenReturn(Optional.of(
                 Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build()
         ));
         when(userRepository.findUserByEmail("ignat@gmail.com")).thenReturn(Optional.ofNullable(
-                User.builder().name("vlad").email("ignat@gmail.com").build()
+                User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build()
         ));
 
+        cacheItems(1L, 2L, 3L);
+        String ownerTag = friendsSharingService.getUserItemsETag(user);
+        String otherTag = itemVersions.userETag(3L);
+        String itemsTag = friendsSharingService.getItemsETag();
+
         assertThat(friendsSharingService.shareBook(request, user))
                 .isEqualTo(expect);
+        verify(lendingHistory).record(null, LendingAction.SHARE, 1L, 2L, 1L);
+        assertThat(cachedItems()).containsOnlyKeys(3L);
+        assertThat(friendsSharingService.getUserItemsETag(user)).isNotEqualTo(ownerTag);
+        assertThat(itemVersions.userETag(3L)).isEqualTo(otherTag);
+        assertThat(friendsSharingService.getItemsETag()).isNotEqualTo(itemsTag);
     }
 
     @Test
@@ -178,7 +405,7 @@ public class FriendsSharingServiceTest {
     void testShareBook_AlreadyGiven() {
         var request = new GiveBookRequest("Effective Java", "ignat@gmail.com");
 
-        when(bookRepository.findOwnedBooks(1L)).thenReturn(List.of(
+        when(bookRepository.findOwnedBookByTitle(1L, "Effective Java")).thenReturn(Optional.of(
                 Book.builder().author("Joshua Bloch").title("Effective Java").holder(
                         User.builder().name("vlad").email("ignat@gmail.com").build()
                 ).owner(user).build()
@@ -194,7 +421,7 @@ public class FriendsSharingServiceTest {
     void testShareBook_NoUser() {
         var request = new GiveBookRequest("Effective Java", "ignat@gmail.com");
 
-        when(bookRepository.findOwnedBooks(1L)).thenReturn(List.of(
+        when(bookRepository.findOwnedBookByTitle(1L, "Effective Java")).thenReturn(Optional.of(
                 Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build()
         ));
 
@@ -217,15 +444,18 @@ public class FriendsSharingServiceTest {
                         .build())
                 .build();
 
-        when(bookRepository.findOwnedBooks(1L)).thenReturn(List.of(
+        when(bookRepository.findOwnedBookByTitle(1L, "Effective Java")).thenReturn(Optional.of(
                 Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build()
         ));
         when(userRepository.findUserByEmail("ignat@gmail.com")).thenReturn(Optional.ofNullable(
-                User.builder().name("vlad").email("ignat@gmail.com").build()
+                User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build()
         ));
 
+        cacheItems(1L, 2L, 3L);
+
         assertThat(friendsSharingService.giveBook(request, user))
                 .isEqualTo(expect);
+        assertThat(cachedItems()).containsOnlyKeys(3L);
     }
 
     @Test
@@ -243,7 +473,7 @@ public class FriendsSharingServiceTest {
     void testGiveBook_AlreadyGiven() {
         var request = new GiveBookRequest("Effective Java", "ignat@gmail.com");
 
-        when(bookRepository.findOwnedBooks(1L)).thenReturn(List.of(
+        when(bookRepository.findOwnedBookByTitle(1L, "Effective Java")).thenReturn(Optional.of(
                 Book.builder().author("Joshua Bloch").title("Effective Java").holder(
                         User.builder().name("vlad").email("ignat@gmail.com").build()
                 ).owner(user).build()
@@ -259,7 +489,7 @@ public class FriendsSharingServiceTest {
     void testGiveBook_NoUser() {
         var request = new GiveBookRequest("Effective Java", "ignat@gmail.com");
 
-        when(bookRepository.findOwnedBooks(1L)).thenReturn(List.of(
+        when(bookRepository.findOwnedBookByTitle(1L, "Effective Java")).thenReturn(Optional.of(
                 Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build()
         ));
 
@@ -268,18 +498,150 @@ public class FriendsSharingServiceTest {
                 .hasMessage("There are no users with that username!!");
     }
 
+    @Test
+    @DisplayName("Test for shareBooks() method")
+    void testShareBooks() {
+        var vlad = User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build();
+        var request = new GiveBooksRequest(List.of(
+                new GiveBookRequest("Effective Java", "ignat@gmail.com"),
+                new GiveBookRequest("Effective Java", "ignat@gmail.com"),
+                new GiveBookRequest("Python", "ignat@gmail.com"),
+                new GiveBookRequest("Effective Java", "nobody@gmail.com")
+        ));
+        var book = Book.builder().book_id(1L).author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build();
+
+        when(bookRepository.findOwnedBooksByTitleKeys(1L, Set.of("effective java", "python")))
+                .thenReturn(List.of(book));
+        when(userRepository.findUsersByEmailIn(Set.of("ignat@gmail.com", "nobody@gmail.com")))
+                .thenReturn(List.of(vlad));
+
+        assertThat(friendsSharingService.shareBooks(request, user))
+                .extracting(BookTransferDTO::isSuccess, BookTransferDTO::getError)
+                .containsExactly(
+                        tuple(true, null),
+                        tuple(false, "You have already given this book to someone!"),
+                        tuple(false, "You do not own a book with that title!"),
+                        tuple(false, "You have already given this book to someone!"));
+        assertThat(book.getHolder()).isEqualTo(vlad);
+        assertThat(book.getOwner()).isEqualTo(user);
+    }
+
+    @Test
+    @DisplayName("Test for giveBooks() method")
+    void testGiveBooks() {
+        var vlad = User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build();
+        var request = new GiveBooksRequest(List.of(
+                new GiveBookRequest("Effective Java", "IGNAT@gmail.com"),
+                new GiveBookRequest("effective java", "ignat@gmail.com"),
+                new GiveBookRequest("Effective Java", "ignat@gmail.com")
+        ));
+        var bookOne = Book.builder().book_id(1L).author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build();
+        var bookTwo = Book.builder().book_id(2L).author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build();
+
+        when(bookRepository.findOwnedBooksByTitleKeys(1L, Set.of("effective java")))
+                .thenReturn(List.of(bookOne, bookTwo));
+        when(userRepository.findUsersByEmailIn(Set.of("IGNAT@gmail.com", "ignat@gmail.com")))
+                .thenReturn(List.of(vlad));
+
+        var expectBook = BookWithUserDTO.builder()
+                .author("Joshua Bloch")
+                .title("Effective Java")
+                .person(UserDTO.builder()
+                        .name("vlad")
+                        .email("ignat@gmail.com")
+                        .build())
+                .build();
+        assertThat(friendsSharingService.giveBooks(request, user))
+                .containsExactly(
+                        new BookTransferDTO("Effective Java", true, expectBook, null),
+                        new BookTransferDTO("effective java", true, expectBook, null),
+                        new BookTransferDTO("Effective Java", false, null, "You do not own a book with that title!"));
+        assertThat(bookOne.getOwner()).isEqualTo(vlad);
+        assertThat(bookTwo.getOwner()).isEqualTo(vlad);
+    }
+
+    @Test
+    @DisplayName("Test for shareBook() method(concurrent change retried)")
+    void testShareBook_ConcurrentChange() {
+        var request = new GiveBookRequest("Effective Java", "ignat@gmail.com");
+        User holder = User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build();
+
+        when(bookRepository.findOwnedBookByTitle(1L, "Effective Java")).thenAnswer(invocation -> Optional.of(
+                Book.builder().book_id(1L).author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build()
+        ));
+        when(userRepository.findUserByEmail("ignat@gmail.com")).thenReturn(Optional.of(holder));
+        when(bookRepository.save(any(Book.class)))
+                .thenThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        assertThat(friendsSharingService.shareBook(request, user).getPerson().getEmail())
+                .isEqualTo("ignat@gmail.com");
+        verify(bookRepository, times(2)).findOwnedBookByTitle(1L, "Effective Java");
+        assertThat(transferRetry.getConflictCount()).isEqualTo(1);
+        assertThat(transferRetry.getRetryCount()).isEqualTo(1);
+        assertThat(transferRetry.getExhaustedCount()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Test for giveBook() method(concurrent change, retries exhausted)")
+    void testGiveBook_RetriesExhausted() {
+        var request = new GiveBookRequest("Effective Java", "ignat@gmail.com");
+
+        when(bookRepository.findOwnedBookByTitle(1L, "Effective Java")).thenAnswer(invocation -> Optional.of(
+                Book.builder().book_id(1L).author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build()
+        ));
+        when(userRepository.findUserByEmail("ignat@gmail.com")).thenReturn(Optional.of(
+                User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build()
+        ));
+        when(bookRepository.save(any(Book.class))).thenThrow(new ObjectOptimisticLockingFailureException(Book.class, 1L));
+
+        assertThatThrownBy(() -> friendsSharingService.giveBook(request, user))
+                .isInstanceOf(ObjectOptimisticLockingFailureException.class);
+        verify(bookRepository, times(3)).save(any(Book.class));
+        assertThat(transferRetry.getConflictCount()).isEqualTo(3);
+        assertThat(transferRetry.getRetryCount()).isEqualTo(2);
+        assertThat(transferRetry.getExhaustedCount()).isEqualTo(1);
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        transferRetry.bindTo(registry);
+        assertThat(registry.get("friends.sharing.transfer.conflicts").functionCounter().count()).isEqualTo(3);
+        assertThat(registry.get("friends.sharing.transfer.retries").functionCounter().count()).isEqualTo(2);
+        assertThat(registry.get("friends.sharing.transfer.exhausted").functionCounter().count()).isEqualTo(1);
+    }
+
     @Test
     @DisplayName("Test for returnBook() method")
     void testReturnBook() {
         var request = new ReturnBookRequest("Effective Java");
+        var vlad = User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build();
+        cacheItems(1L, 2L, 3L);
 
-        when(bookRepository.findHeldBooks(1L)).thenReturn(List.of(
-                Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).owner(
-                        User.builder().name("vlad").email("ignat@gmail.com").build()
-                ).build()
+        when(bookRepository.findHeldBookUsersByTitle(1L, "Effective Java")).thenReturn(Optional.of(
+                new BookUsersDTO(5L, 1L, 2L)
         ));
+        when(bookRepository.returnBookFromHolder(5L, 1L)).thenReturn(1);
 
         friendsSharingService.returnBook(request, user);
+
+        verify(lendingHistory).record(5L, LendingAction.RETURN, 1L, 2L, 2L);
+        assertThat(cachedItems()).containsOnlyKeys(3L);
+    }
+
+    @Test
+    @DisplayName("Test for returnBook() method(returned concurrently)")
+    void testReturnBook_AlreadyReturned() {
+        var request = new ReturnBookRequest("Effective Java");
+        var vlad = User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build();
+        cacheItems(1L, 2L);
+
+        when(bookRepository.findHeldBookUsersByTitle(1L, "Effective Java")).thenReturn(Optional.of(
+                new BookUsersDTO(5L, 1L, 2L)
+        ));
+
+        assertThatThrownBy(() -> friendsSharingService.returnBook(request, user))
+                .isInstanceOf(ItemException.class)
+                .hasMessage("You do not hold a book with that title!");
+        assertThat(cachedItems()).containsOnlyKeys(1L, 2L);
     }
 
     @Test
@@ -297,8 +659,8 @@ public class FriendsSharingServiceTest {
     void testReturnBook_AlreadyOwner() {
         var request = new ReturnBookRequest("Effective Java");
 
-        when(bookRepository.findHeldBooks(1L)).thenReturn(List.of(
-                Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build()
+        when(bookRepository.findHeldBookUsersByTitle(1L, "Effective Java")).thenReturn(Optional.of(
+                new BookUsersDTO(5L, 1L, 1L)
         ));
 
         assertThatThrownBy(() -> friendsSharingService.returnBook(request, user))
@@ -306,15 +668,59 @@ public class FriendsSharingServiceTest {
                 .hasMessage("You are the owner of this book!");
     }
 
+    @Test
+    @DisplayName("Test for returnBooks() method")
+    void testReturnBooks() {
+        var vlad = User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build();
+        var request = new ReturnBooksRequest(List.of(
+                new ReturnBookRequest("Effective Java"),
+                new ReturnBookRequest("Effective Java"),
+                new ReturnBookRequest("Python")
+        ));
+        var book = Book.builder().book_id(1L).author("Joshua Bloch").title("Effective Java").holder(user).owner(vlad).build();
+        var ownBook = Book.builder().book_id(2L).author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build();
+
+        when(bookRepository.findHeldBooksByTitleKeys(1L, Set.of("effective java", "python")))
+                .thenReturn(List.of(book, ownBook));
+
+        assertThat(friendsSharingService.returnBooks(request, user))
+                .extracting(BookTransferDTO::isSuccess, BookTransferDTO::getError)
+                .containsExactly(
+                        tuple(true, null),
+                        tuple(false, "You are the owner of this book!"),
+                        tuple(false, "You do not hold a book with that title!"));
+        assertThat(book.getHolder()).isEqualTo(vlad);
+    }
+
+    @Test
+    @DisplayName("Test for returnBooks() method(already owner, bearer token principal)")
+    void testReturnBooks_AlreadyOwner_TokenUser() {
+        var tokenUser = User.builder().user_id(1L).name("vadim").email("email@gmail.com")
+                .authority(Authorities.USER).build(); //as TokenService builds it, without a password
+        var request = new ReturnBooksRequest(List.of(new ReturnBookRequest("Effective Java")));
+        var ownBook = Book.builder().book_id(2L).author("Joshua Bloch").title("Effective Java")
+                .holder(user).owner(user).build();
+
+        when(bookRepository.findHeldBooksByTitleKeys(1L, Set.of("effective java"))).thenReturn(List.of(ownBook));
+
+        assertThat(friendsSharingService.returnBooks(request, tokenUser))
+                .extracting(BookTransferDTO::isSuccess, BookTransferDTO::getError)
+                .containsExactly(tuple(false, "You are the owner of this book!"));
+        verify(lendingHistory, never()).record(any(), any(), any(), any(), any());
+    }
+
     @Test
     @DisplayName("Test for deleteBook() method")
     void testDeleteBook() {
-        when(bookRepository.findById(1L)).thenReturn(Optional.ofNullable(
-                Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build()
-        ));
+        var vlad = User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build();
+        cacheItems(1L, 2L, 3L);
+
+        when(bookRepository.deleteBooksByIds(List.of(1L))).thenReturn(1);
 
         assertThat(friendsSharingService.deleteBook(1L))
                 .isEqualTo(true);
+        assertThat(cachedItems()).isEmpty();
+        verify(bookRepository, never()).findBookUsers(any());
     }
 
     @Test
@@ -324,21 +730,234 @@ public class FriendsSharingServiceTest {
                 .isEqualTo(false);
     }
 
+    @Test
+    @DisplayName("Test for deleteBooks() method")
+    void testDeleteBooks() {
+        List<Long> ids = LongStream.rangeClosed(1, 2500).boxed().toList();
+        when(bookRepository.deleteBooksByIds(ids.subList(0, 1000))).thenReturn(1000);
+        when(bookRepository.deleteBooksByIds(ids.subList(1000, 2000))).thenReturn(999);
+        when(bookRepository.deleteBooksByIds(ids.subList(2000, 2500))).thenReturn(500);
+
+        cacheItems(1L, 2L);
+        String userTag = itemVersions.userETag(3L);
+
+        assertThat(friendsSharingService.deleteBooks(new DeleteBooksRequest(ids)))
+                .isEqualTo(2499);
+        assertThat(cachedItems()).isEmpty();
+        assertThat(itemVersions.userETag(3L)).isNotEqualTo(userTag);
+    }
+
     @Test
     @DisplayName("Test for forceReturnBook() method")
     void testForceReturnBook() {
-        when(bookRepository.findById(1L)).thenReturn(Optional.ofNullable(
-                Book.builder().author("Joshua Bloch").title("Effective Java").holder(user).owner(user).build()
-        ));
+        var vlad = User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build();
 
-        assertThat(friendsSharingService.deleteBook(1L))
+        when(bookRepository.findBookUsers(1L)).thenReturn(Optional.of(new BookUsersDTO(1L, 2L, 1L)));
+        when(bookRepository.returnBookFromHolder(1L, 2L)).thenReturn(1);
+
+        assertThat(friendsSharingService.forceReturnBook(1L))
                 .isEqualTo(true);
+        verify(lendingHistory).record(1L, LendingAction.FORCE_RETURN, 2L, 1L, 1L);
+    }
+
+    @Test
+    @DisplayName("Test for forceReturnBook() method(given away concurrently)")
+    void testForceReturnBook_HolderChanged() {
+        cacheItems(1L, 2L, 3L);
+
+        when(bookRepository.findBookUsers(1L)).thenReturn(
+                Optional.of(new BookUsersDTO(1L, 2L, 1L)), Optional.of(new BookUsersDTO(1L, 3L, 2L)));
+        when(bookRepository.returnBookFromHolder(1L, 2L)).thenReturn(0);
+        when(bookRepository.returnBookFromHolder(1L, 3L)).thenReturn(1);
+
+        assertThat(friendsSharingService.forceReturnBook(1L))
+                .isEqualTo(true);
+        verify(lendingHistory).record(1L, LendingAction.FORCE_RETURN, 3L, 2L, 2L);
+        verify(lendingHistory, never()).record(1L, LendingAction.FORCE_RETURN, 2L, 1L, 1L);
+        assertThat(cachedItems()).containsOnlyKeys(1L);
+        assertThat(transferRetry.getRetryCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Test for forceReturnBook() method(already at home)")
+    void testForceReturnBook_AtHome() {
+        cacheItems(1L);
+
+        when(bookRepository.findBookUsers(1L)).thenReturn(Optional.of(new BookUsersDTO(1L, 1L, 1L)));
+
+        assertThat(friendsSharingService.forceReturnBook(1L))
+                .isEqualTo(true);
+        verify(bookRepository, never()).returnBookFromHolder(any(), any());
+        verify(lendingHistory, never()).record(any(), any(), any(), any(), any());
+        assertThat(cachedItems()).containsOnlyKeys(1L);
     }
 
     @Test
     @DisplayName("Test for forceReturnBook() method(no book)")
     void testForceReturnBook_NoBook() {
-        assertThat(friendsSharingService.deleteBook(1L))
+        assertThat(friendsSharingService.forceReturnBook(1L))
                 .isEqualTo(false);
     }
+
+    @Test
+    @DisplayName("Test for getHeldItems() method(read your writes)")
+    void testGetHeldItems_ReadYourWrites() {
+        var vlad = User.builder().user_id(2L).name("vlad").email("ignat@gmail.com").build();
+        var stranger = User.builder().user_id(3L).name("ignat").email("stranger@gmail.com").build();
+        List<Boolean> onPrimary = new ArrayList<>();
+        when(bookRepository.findHeldBookDTOs(any())).thenAnswer(invocation -> {
+            onPrimary.add(ReadWriteRoutingDataSource.isPinnedToPrimary());
+            return List.of();
+        });
+        when(bookRepository.findBookUsers(1L)).thenReturn(Optional.of(new BookUsersDTO(1L, 2L, 1L)));
+        when(bookRepository.returnBookFromHolder(1L, 2L)).thenReturn(1);
+
+        friendsSharingService.getHeldItems(vlad);
+        friendsSharingService.forceReturnBook(1L);
+        friendsSharingService.getHeldItems(vlad);
+        friendsSharingService.getHeldItems(stranger);
+        ticker.addAndGet(Duration.ofSeconds(3).toNanos());
+        friendsSharingService.getHeldItems(vlad);
+
+        assertThat(onPrimary).containsExactly(false, true, false, false);
+    }
+
+    @Test
+    @DisplayName("Test for getItems() method(read your writes)")
+    void testGetItems_ReadYourWrites() {
+        List<Boolean> onPrimary = new ArrayList<>();
+        when(bookRepository.findAllBookDTOs()).thenAnswer(invocation -> {
+            onPrimary.add(ReadWriteRoutingDataSource.isPinnedToPrimary());
+            return List.of();
+        });
+        when(bookRepository.deleteBooksByIds(List.of(1L))).thenReturn(1);
+
+        friendsSharingService.getItems();
+        friendsSharingService.deleteBooks(new DeleteBooksRequest(List.of(1L)));
+        friendsSharingService.getItems();
+        ticker.addAndGet(Duration.ofSeconds(3).toNanos());
+        friendsSharingService.getItems();
+
+        assertThat(onPrimary).containsExactly(false, true, false);
+        assertThat(ReadWriteRoutingDataSource.isPinnedToPrimary()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Test for getBookHistory() method")
+    void testGetBookHistory() {
+        var event = new LendingEventDTO(1L, LendingAction.SHARE, 1L, 2L, 1L, Instant.parse("2024-05-01T10:00:00Z"));
+        when(lendingHistoryRepository.findBookHistory(1L, Limit.of(100))).thenReturn(List.of(event));
+
+        assertThat(friendsSharingService.getBookHistory(1L, null))
+                .containsExactly(event);
+    }
+
+    @Test
+    @DisplayName("Test for getUserHistory() method")
+    void testGetUserHistory() {
+        var shared = new LendingEventDTO(1L, LendingAction.SHARE, 1L, 2L, 1L, Instant.parse("2024-05-01T10:00:00Z"));
+        var got = new LendingEventDTO(2L, LendingAction.GIVE, 3L, 1L, 1L, Instant.parse("2024-05-01T11:00:00Z"));
+        var returned = new LendingEventDTO(1L, LendingAction.RETURN, 2L, 1L, 1L, Instant.parse("2024-05-01T12:00:00Z"));
+        when(lendingHistoryRepository.findReceivedHistory(1L, Limit.of(2))).thenReturn(List.of(returned, got));
+        when(lendingHistoryRepository.findHandedOverHistory(1L, Limit.of(2))).thenReturn(List.of(shared));
+
+        assertThat(friendsSharingService.getUserHistory(1L, 2))
+                .containsExactly(returned, got);
+    }
+
+    @Test
+    @DisplayName("Test for getUserHistory() method(wrong limit)")
+    void testGetUserHistory_WrongLimit() {
+        assertThatThrownBy(() -> friendsSharingService.getUserHistory(1L, 1001))
+                .isInstanceOf(ItemException.class)
+                .hasMessage("Page size must be between 1 and 1000!");
+    }
+
+    @Test
+    @DisplayName("Test for LendingHistory writer(batches)")
+    void testLendingHistoryBatches() throws Exception {
+        var jdbcRepository = mock(LendingHistoryJdbcRepository.class);
+        List<List<LendingEvent>> batches = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> batches.add(List.copyOf(invocation.getArgument(0))))
+                .when(jdbcRepository).insertEvents(any());
+        var clock = Clock.fixed(Instant.parse("2024-05-01T10:00:00Z"), ZoneOffset.UTC);
+        var history = new LendingHistory(jdbcRepository, clock, 100, 2, 10);
+
+        for (long id = 1; id <= 5; id++) {
+            history.record(id, LendingAction.SHARE, 1L, 2L, 1L);
+        }
+        history.destroy();
+
+        assertThat(batches).allSatisfy(batch -> assertThat(batch).hasSizeBetween(1, 2));
+        assertThat(batches.stream().flatMap(List::stream))
+                .extracting(LendingEvent::getBook_id, LendingEvent::getTime)
+                .containsExactly(LongStream.rangeClosed(1, 5)
+                        .mapToObj(id -> tuple(id, clock.instant())).toArray(Tuple[]::new));
+        assertThat(history.getWrittenCount()).isEqualTo(5);
+        assertThat(history.getDroppedCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("Test for LendingHistory writer(queue full)")
+    void testLendingHistoryQueueFull() throws Exception {
+        var jdbcRepository = mock(LendingHistoryJdbcRepository.class);
+        var writing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            writing.countDown();
+            release.await();
+            return null;
+        }).when(jdbcRepository).insertEvents(any());
+        var history = new LendingHistory(jdbcRepository, Clock.systemUTC(), 2, 10, 10);
+
+        history.record(1L, LendingAction.SHARE, 1L, 2L, 1L);
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        for (long id = 2; id <= 4; id++) {
+            history.record(id, LendingAction.SHARE, 1L, 2L, 1L);
+        }
+        release.countDown();
+        history.destroy();
+
+        assertThat(history.getDroppedCount()).isEqualTo(1);
+        assertThat(history.getWrittenCount()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Test for LendingHistory writer(event after shutdown)")
+    void testLendingHistoryAfterDestroy() throws Exception {
+        var jdbcRepository = mock(LendingHistoryJdbcRepository.class);
+        var history = new LendingHistory(jdbcRepository, Clock.systemUTC(), 10, 10, 10);
+
+        history.record(1L, LendingAction.SHARE, 1L, 2L, 1L);
+        history.destroy();
+        history.record(2L, LendingAction.GIVE, 1L, 2L, 1L); //a commit that finished during shutdown
+
+        assertThat(history.getWrittenCount()).isEqualTo(1);
+        assertThat(history.getDroppedCount()).isEqualTo(1);
+        assertThat(history.getQueueDepth()).isZero();
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        history.bindTo(registry);
+        assertThat(registry.get("friends.sharing.history.events").tag("result", "written")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("friends.sharing.history.events").tag("result", "dropped")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("friends.sharing.history.events").tag("result", "failed")
+                .functionCounter().count()).isZero();
+    }
+
+    private void cacheItems(Long... userIds) {
+        for (Long id : userIds) {
+            cacheManager.getCache(CacheConfig.HELD_ITEMS).put(id, new ItemsWithUser(List.of()));
+            cacheManager.getCache(CacheConfig.OWNED_ITEMS).put(id, new ItemsWithUser(List.of()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> cachedItems() {
+        Map<Object, Object> held = (Map<Object, Object>) cacheManager.getCache(CacheConfig.HELD_ITEMS).getNativeCache();
+        Map<Object, Object> owned = (Map<Object, Object>) cacheManager.getCache(CacheConfig.OWNED_ITEMS).getNativeCache();
+        assertThat(owned.keySet()).isEqualTo(held.keySet());
+        return held;
+    }
 }
@@ -0,0 +1,382 @@
+package com.friends.sharing;
+
+import com.friends.sharing.configuration.StatementCounter;
+import com.friends.sharing.configuration.StatementLimitFilter;
+import com.friends.sharing.configuration.security.CredentialCache;
+import com.friends.sharing.repository.BookRepository;
+import com.friends.sharing.service.BookShards;
+import com.friends.sharing.service.EmailBloomFilter;
+import com.friends.sharing.service.ItemVersions;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// Three shards on the local server: test_db and two more databases created on first use.
+// Not transactional, every shard commits on its own and the books are moved after commit.
+@AutoConfigureMockMvc
+@TestPropertySource(locations = {"classpath:test.properties"}, properties = {
+        "friends-sharing.sharding.urls = jdbc:mysql://localhost:3306/test_shard_1?createDatabaseIfNotExist=true," +
+                "jdbc:mysql://localhost:3306/test_shard_2?createDatabaseIfNotExist=true",
+        "friends-sharing.statements.per-request-limit = 20" //moves and the fan-out run statements on every shard
+})
+@SpringBootTest
+class FriendsSharingShardingIT {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    BookShards bookShards;
+
+    @Autowired
+    CredentialCache credentialCache;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    ItemVersions itemVersions;
+
+    @Autowired
+    EmailBloomFilter emailBloomFilter;
+
+    @Autowired
+    StatementCounter statementCounter;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    // user 1 is an admin on shard 1, user 2 lives on shard 0 and user 3 on shard 2
+    final RequestPostProcessor vlad = SecurityMockMvcRequestPostProcessors.httpBasic("ignat@gmail.com", "1234");
+    final RequestPostProcessor vadim = SecurityMockMvcRequestPostProcessors.httpBasic("email@gmail.com", "1234");
+    final RequestPostProcessor oleg = SecurityMockMvcRequestPostProcessors.httpBasic("oleg@gmail.com", "1234");
+
+    @BeforeEach
+    void createUsers() {
+        assertThat(bookShards.getShardCount()).isEqualTo(3);
+        assertThat(bookShards.shardOf(1L)).isEqualTo(1);
+        assertThat(bookShards.shardOf(2L)).isEqualTo(0);
+        assertThat(bookShards.shardOf(3L)).isEqualTo(2);
+
+        String password = "'$2a$10$Hzdg8upvCxY8wqZAyq79Ou1szV6sS6Xy55GmDyOqgz8ZKbMsklZ1C'";
+        bookShards.getShard(0).update("INSERT INTO user(user_id, name, email, password, authority) VALUES " +
+                "(1, 'vlad', 'ignat@gmail.com', " + password + ", 1), " +
+                "(2, 'vadim', 'email@gmail.com', " + password + ", 0), " +
+                "(3, 'oleg', 'oleg@gmail.com', " + password + ", 0)");
+        bookShards.copyUsers();
+        emailBloomFilter.rebuild();
+    }
+
+    @AfterEach
+    void deleteUsers() {
+        for (int shard = 0; shard < bookShards.getShardCount(); shard++) {
+            bookShards.getShard(shard).update("DELETE FROM book_moves");
+            bookShards.getShard(shard).update("DELETE FROM books");
+            bookShards.getShard(shard).update("DELETE FROM user");
+        }
+        bookShards.getShard(0).update("DELETE FROM lending_history");
+        credentialCache.evictAll();
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        itemVersions.changedAll();
+        bookShards.retryMoves(); //forgets the pending owners
+    }
+
+    @Test
+    @DisplayName("Test for POST /book/add endpoint, the book goes to the owner's shard")
+    void testAddBook_PlacedOnOwnersShard() throws Exception {
+        addBook(vlad, "Effective Java");
+        addBook(vadim, "Python");
+        addBook(oleg, "Clean Code");
+
+        assertThat(titles(0)).containsExactly("Python");
+        assertThat(titles(1)).containsExactly("Effective Java");
+        assertThat(titles(2)).containsExactly("Clean Code");
+        assertThat(ids()).doesNotHaveDuplicates().hasSize(3);
+    }
+
+    @Test
+    @DisplayName("Test for POST /book/give endpoint, a book moved to a lower shard doesn't make ids collide")
+    void testGiveBook_ToLowerShard_IdsStayUnique() throws Exception {
+        addBook(oleg, "Clean Code");
+        transfer("/book/give", oleg, "Clean Code", "email@gmail.com");
+
+        addBook(vadim, "Python");
+        addBook(oleg, "Refactoring");
+        addBook(vlad, "Effective Java");
+        transfer("/book/give", vadim, "Python", "oleg@gmail.com");
+
+        assertThat(ids()).doesNotHaveDuplicates().hasSize(4);
+        assertThat(titles(0)).containsExactly("Clean Code");
+        assertThat(titles(1)).containsExactly("Effective Java");
+        assertThat(titles(2)).containsExactlyInAnyOrder("Refactoring", "Python");
+    }
+
+    @Test
+    @DisplayName("Test for moving, a different book under the same id on the target is not overwritten")
+    void testMove_ConflictNotOverwritten() throws Exception {
+        addBook(oleg, "Clean Code");
+        Long id = bookShards.getShard(2).queryForObject("SELECT book_id FROM books", Long.class);
+        bookShards.getShard(0).update("INSERT INTO books(book_id, owner_id, holder_id, author, title) " +
+                "VALUES (?, 2, 2, 'Author', 'Python')", id);
+
+        transfer("/book/give", oleg, "Clean Code", "email@gmail.com");
+
+        assertThat(titles(0)).containsExactly("Python");
+        assertThat(titles(2)).containsExactly("Clean Code");
+    }
+
+    @Test
+    @DisplayName("Test for a failed move, the new owner still sees and lends the book, the move is retried")
+    void testGiveBook_FailedMove() throws Exception {
+        addBook(oleg, "Clean Code");
+        Long id = bookShards.getShard(2).queryForObject("SELECT book_id FROM books", Long.class);
+        // blocks the move to vadim's shard
+        bookShards.getShard(0).update("INSERT INTO books(book_id, owner_id, holder_id, author, title) " +
+                "VALUES (?, 1, 1, 'Author', 'Python')", id);
+        transfer("/book/give", oleg, "Clean Code", "email@gmail.com");
+
+        assertThat(bookShards.isMovePending(2L)).isTrue();
+        mockMvc.perform(get("/owned").with(vadim))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(1))
+                .andExpect(jsonPath("$.books[0].title").value("Clean Code"));
+
+        bookShards.retryMoves();
+        assertThat(titles(2)).containsExactly("Clean Code");
+        assertThat(bookShards.isMovePending(2L)).isTrue();
+
+        bookShards.getShard(0).update("DELETE FROM books WHERE book_id = ?", id);
+        transfer("/book/share", vadim, "Clean Code", "ignat@gmail.com");
+
+        assertThat(titles(2)).isEmpty();
+        assertThat(titles(0)).containsExactly("Clean Code");
+        assertThat(bookShards.getShard(2).queryForObject("SELECT COUNT(*) FROM book_moves", Integer.class)).isZero();
+        assertThat(bookShards.isMovePending(2L)).isFalse();
+        mockMvc.perform(get("/held").with(vlad))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].title").value("Clean Code"));
+    }
+
+    @Test
+    @DisplayName("Test for a pending move picked up by the scheduled retry")
+    void testRetryMoves() throws Exception {
+        addBook(oleg, "Clean Code");
+        Long id = bookShards.getShard(2).queryForObject("SELECT book_id FROM books", Long.class);
+        bookShards.getShard(2).update("UPDATE books SET owner_id = 2, holder_id = 2 WHERE book_id = ?", id);
+        bookShards.getShard(2).update("INSERT INTO book_moves(book_id, owner_id) VALUES (?, 2)", id);
+
+        bookShards.retryMoves();
+
+        assertThat(titles(2)).isEmpty();
+        assertThat(titles(0)).containsExactly("Clean Code");
+        assertThat(bookShards.getShard(2).queryForObject("SELECT COUNT(*) FROM book_moves", Integer.class)).isZero();
+    }
+
+    @Test
+    @DisplayName("Test for GET /held endpoint, a book copied but not yet deleted by a move is listed once")
+    void testHeld_BookBeingMoved() throws Exception {
+        addBook(oleg, "Clean Code");
+        transfer("/book/share", oleg, "Clean Code", "ignat@gmail.com");
+        bookShards.getShard(0).update("INSERT INTO books(book_id, owner_id, holder_id, author, title, version) " +
+                "SELECT book_id, owner_id, holder_id, author, title, version FROM test_shard_2.books");
+
+        mockMvc.perform(get("/held").with(vlad))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(1))
+                .andExpect(jsonPath("$.books[0].title").value("Clean Code"));
+    }
+
+    @Test
+    @DisplayName("Test for moving, the copy left by an interrupted move is taken over")
+    void testMove_InterruptedCopyTakenOver() {
+        bookShards.getShard(0).update("INSERT INTO books(book_id, owner_id, holder_id, author, title) " +
+                "VALUES (7, 1, 1, 'Joshua Bloch', 'Effective Java')");
+        bookShards.getShard(1).update("INSERT INTO books(book_id, owner_id, holder_id, author, title) " +
+                "VALUES (7, 1, 1, 'Joshua Bloch', 'Effective Java')");
+
+        bookShards.rebalance();
+
+        assertThat(titles(0)).isEmpty();
+        assertThat(titles(1)).containsExactly("Effective Java");
+    }
+
+    @Test
+    @DisplayName("Test for GET /owned and GET /held endpoints over several shards")
+    void testOwnedAndHeld() throws Exception {
+        addBook(vlad, "Effective Java");
+        addBook(oleg, "Clean Code");
+        transfer("/book/share", oleg, "Clean Code", "ignat@gmail.com");
+
+        mockMvc.perform(get("/owned").with(vlad))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(1))
+                .andExpect(jsonPath("$.books[0].title").value("Effective Java"));
+        mockMvc.perform(get("/held").with(vlad))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(2))
+                .andExpect(jsonPath("$.books[0].title").value("Effective Java"))
+                .andExpect(jsonPath("$.books[1].title").value("Clean Code"))
+                .andExpect(jsonPath("$.books[1].person.name").value("oleg"));
+    }
+
+    @Test
+    @DisplayName("Test for the statement limit, the queries on the shard threads count towards the request")
+    void testStatementLimit_ShardQueries() throws Exception {
+        addBook(vlad, "Effective Java");
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+
+        mockMvc.perform(get("/held").with(vlad))
+                .andExpect(status().isOk());
+        assertThat(statementCounter.getCount()).isEqualTo(3); //one query per shard, the user is cached
+
+        var filter = new StatementLimitFilter(statementCounter, 2, true);
+        assertThatThrownBy(() -> filter.doFilter(new MockHttpServletRequest("GET", "/held"),
+                new MockHttpServletResponse(), (request, response) ->
+                        bookShards.queryEachShard(() -> bookRepository.findHeldBookDTOs(1L))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("GET /held executed 3 SQL statements, the limit is 2");
+    }
+
+    @Test
+    @DisplayName("Test for GET /items endpoint, pages merged from all shards by id, ids in creation order")
+    void testGetItems() throws Exception {
+        addBook(oleg, "Clean Code");
+        addBook(vlad, "Effective Java");
+        addBook(vadim, "Python");
+
+        mockMvc.perform(get("/items").with(vlad))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(3))
+                .andExpect(jsonPath("$.books[0].title").value("Clean Code"))
+                .andExpect(jsonPath("$.books[1].title").value("Effective Java"))
+                .andExpect(jsonPath("$.books[2].title").value("Python"));
+        mockMvc.perform(get("/items?limit=2").with(vlad))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(2))
+                .andExpect(jsonPath("$.books[1].title").value("Effective Java"))
+                .andExpect(jsonPath("$.next_cursor").exists());
+    }
+
+    @Test
+    @DisplayName("Test for POST /book/give endpoint, the book moves to the new owner's shard")
+    void testGiveBook_MovesBetweenShards() throws Exception {
+        addBook(vlad, "Effective Java");
+
+        transfer("/book/give", vlad, "Effective Java", "oleg@gmail.com");
+
+        assertThat(titles(1)).isEmpty();
+        assertThat(titles(2)).containsExactly("Effective Java");
+        mockMvc.perform(get("/owned").with(oleg))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].title").value("Effective Java"));
+        mockMvc.perform(get("/owned").with(vlad))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(0));
+
+        // the new owner lends it from their shard
+        transfer("/book/share", oleg, "Effective Java", "email@gmail.com");
+        mockMvc.perform(get("/held").with(vadim))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].title").value("Effective Java"));
+    }
+
+    @Test
+    @DisplayName("Test for POST /book/return endpoints, the book is on the owner's shard")
+    void testReturnBook_OnOtherShard() throws Exception {
+        addBook(oleg, "Clean Code");
+        addBook(oleg, "Refactoring");
+        transfer("/book/share", oleg, "Clean Code", "ignat@gmail.com");
+        transfer("/book/share", oleg, "Refactoring", "ignat@gmail.com");
+
+        mockMvc.perform(post("/book/return").with(vlad)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Clean Code\"}"))
+                .andExpect(status().isOk());
+        mockMvc.perform(post("/book/return/batch").with(vlad)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"books\":[{\"title\":\"Refactoring\"},{\"title\":\"Refactoring\"}]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].success").value(true))
+                .andExpect(jsonPath("$[1].success").value(false));
+
+        assertThat(bookShards.getShard(2).queryForList("SELECT holder_id FROM books", Long.class))
+                .containsOnly(3L);
+        mockMvc.perform(get("/held").with(vlad))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(0));
+    }
+
+    @Test
+    @DisplayName("Test for DELETE /book/delete endpoint, the book is on another shard")
+    void testDeleteBook_OnOtherShard() throws Exception {
+        addBook(oleg, "Clean Code");
+        Long id = bookShards.getShard(2).queryForObject("SELECT book_id FROM books", Long.class);
+
+        mockMvc.perform(delete("/book/delete?id=" + id).with(vlad))
+                .andExpect(status().isOk());
+
+        assertThat(titles(2)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Test for rebalancing, a book on the wrong shard is moved to its owner's")
+    void testRebalance() throws Exception {
+        bookShards.getShard(0).update("INSERT INTO books(book_id, owner_id, holder_id, author, title) " +
+                "VALUES (7, 1, 2, 'Joshua Bloch', 'Effective Java')");
+
+        bookShards.rebalance();
+
+        assertThat(titles(0)).isEmpty();
+        assertThat(titles(1)).containsExactly("Effective Java");
+        mockMvc.perform(get("/held").with(vadim))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].title").value("Effective Java"));
+    }
+
+    private void addBook(RequestPostProcessor user, String title) throws Exception {
+        mockMvc.perform(post("/book/add").with(user)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"author\":\"Author\",\"title\":\"" + title + "\"}"))
+                .andExpect(status().isOk());
+    }
+
+    private void transfer(String path, RequestPostProcessor owner, String title, String username) throws Exception {
+        mockMvc.perform(post(path).with(owner)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"" + title + "\",\"username\":\"" + username + "\"}"))
+                .andExpect(status().isOk());
+    }
+
+    private List<Long> ids() {
+        return IntStream.range(0, bookShards.getShardCount())
+                .boxed()
+                .flatMap(shard -> bookShards.getShard(shard).queryForList("SELECT book_id FROM books", Long.class).stream())
+                .toList();
+    }
+
+    private List<String> titles(int shard) {
+        return bookShards.getShard(shard).queryForList("SELECT title FROM books", String.class);
+    }
+}
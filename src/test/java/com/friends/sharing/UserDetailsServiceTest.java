@@ -1,26 +1,58 @@
 package com.friends.sharing;
 
+import com.friends.sharing.configuration.security.Authorities;
+import com.friends.sharing.configuration.security.CachingAuthenticationProvider;
+import com.friends.sharing.configuration.security.CredentialCache;
+import com.friends.sharing.configuration.security.PasswordHashingExecutor;
+import com.friends.sharing.configuration.security.RateLimiter;
+import com.friends.sharing.configuration.security.TokenService;
 import com.friends.sharing.configuration.security.UserAdapter;
 import com.friends.sharing.dto.request.RegistrationRequest;
+import com.friends.sharing.exception.ServiceBusyException;
 import com.friends.sharing.model.User;
 import com.friends.sharing.repository.UserRepository;
+import com.friends.sharing.service.BookShards;
+import com.friends.sharing.service.EmailBloomFilter;
 import com.friends.sharing.service.UserDetailsServiceImp;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -29,6 +61,14 @@ public class UserDetailsServiceTest {
     UserRepository userRepository;
     @Mock
     PasswordEncoder passwordEncoder;
+    @Mock
+    CredentialCache credentialCache;
+    @Mock
+    PasswordHashingExecutor passwordHashingExecutor;
+    @Mock
+    EmailBloomFilter emailBloomFilter;
+    @Mock
+    BookShards bookShards;
 
     @InjectMocks
     UserDetailsServiceImp userDetailsService;
@@ -45,10 +85,16 @@ public class UserDetailsServiceTest {
                 "USER"
         );
 
+        when(emailBloomFilter.mightContain(registrationRequest.getEmail())).thenReturn(true);
         when(userRepository.findUserByEmail(registrationRequest.getEmail()))
                 .thenReturn(Optional.empty());
+        when(passwordHashingExecutor.encode("1234")).thenReturn("hash");
 
         assertThat(userDetailsService.register(registrationRequest)).isEqualTo(expect);
+        verify(userRepository).save(argThat(user -> user.getPassword().equals("hash")));
+        verify(emailBloomFilter).put(registrationRequest.getEmail());
+        verify(credentialCache).evict(registrationRequest.getEmail());
+        verify(bookShards).copyUser(argThat(user -> user.getEmail().equals(registrationRequest.getEmail())));
     }
 
     @Test
@@ -63,12 +109,34 @@ public class UserDetailsServiceTest {
                 "USER"
         );
 
+        when(emailBloomFilter.mightContain(registrationRequest.getEmail())).thenReturn(true);
         when(userRepository.findUserByEmail(registrationRequest.getEmail()))
                 .thenReturn(Optional.of(new User()));
 
         assertThat(userDetailsService.register(registrationRequest)).isEqualTo(expect);
     }
 
+    @Test
+    @DisplayName("Test for registration, registered concurrently")
+    void testRegistration_RegisteredConcurrently() {
+        ResponseEntity<String> expect = new ResponseEntity<>("Such a user already exists!",
+                HttpStatus.BAD_REQUEST);
+        RegistrationRequest registrationRequest = new RegistrationRequest(
+                "name",
+                "email@gmail.com",
+                "1234",
+                "USER"
+        );
+
+        when(emailBloomFilter.mightContain(registrationRequest.getEmail())).thenReturn(false);
+        when(passwordHashingExecutor.encode("1234")).thenReturn("hash");
+        when(userRepository.save(any(User.class))).thenThrow(new DataIntegrityViolationException("uk_user_email"));
+
+        assertThat(userDetailsService.register(registrationRequest)).isEqualTo(expect);
+        verify(userRepository, never()).findUserByEmail(any());
+        verify(emailBloomFilter, never()).put(any());
+    }
+
     @Test
     @DisplayName("Test for registration, wrong authority")
     void testRegistration_WrongRole() {
@@ -81,12 +149,52 @@ public class UserDetailsServiceTest {
                 "megauser"
         );
 
+        when(emailBloomFilter.mightContain(registrationRequest.getEmail())).thenReturn(true);
         when(userRepository.findUserByEmail(registrationRequest.getEmail()))
                 .thenReturn(Optional.empty());
 
         assertThat(userDetailsService.register(registrationRequest)).isEqualTo(expect);
     }
 
+    @Test
+    @DisplayName("Test for password hashing executor, queue full")
+    void testPasswordHashing_QueueFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordHashingExecutor executor = new PasswordHashingExecutor(passwordEncoder, 1, 1);
+
+        when(passwordEncoder.encode(any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return "hash";
+        });
+
+        CompletableFuture<String> running = CompletableFuture.supplyAsync(() -> executor.encode("1"));
+        started.await();
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> executor.encode("2"));
+        while (executor.getQueueDepth() == 0) {
+            Thread.onSpinWait();
+        }
+
+        assertThatThrownBy(() -> executor.encode("3"))
+                .isInstanceOf(ServiceBusyException.class)
+                .hasMessage("Too many registrations at the moment, try again later!");
+
+        release.countDown();
+        assertThat(running.get()).isEqualTo("hash");
+        assertThat(queued.get()).isEqualTo("hash");
+        assertThat(executor.getHashedCount()).isEqualTo(2);
+        assertThat(executor.getRejectedCount()).isEqualTo(1);
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        executor.bindTo(registry);
+        assertThat(registry.get("friends.sharing.password.hashing.queue.depth").gauge().value()).isEqualTo(0);
+        assertThat(registry.get("friends.sharing.password.hashing").functionTimer().count()).isEqualTo(2);
+        assertThat(registry.get("friends.sharing.password.hashing.max").gauge().value()).isPositive();
+        assertThat(registry.get("friends.sharing.password.hashing.rejected").functionCounter().count()).isEqualTo(1);
+        executor.destroy();
+    }
+
     @Test
     @DisplayName("Test for authentication")
     void testAuthentication() {
@@ -94,6 +202,7 @@ public class UserDetailsServiceTest {
         User user = new User();
         UserAdapter expect = new UserAdapter(user);
 
+        when(emailBloomFilter.mightContainNow(email)).thenReturn(true);
         when(userRepository.findUserByEmail(email))
                 .thenReturn(Optional.of(user));
 
@@ -105,6 +214,7 @@ public class UserDetailsServiceTest {
     void testAuthentication_NoUser() {
         String email = "email@gmail.com";
 
+        when(emailBloomFilter.mightContainNow(email)).thenReturn(true);
         when(userRepository.findUserByEmail(email))
                 .thenReturn(Optional.empty());
 
@@ -112,4 +222,228 @@ public class UserDetailsServiceTest {
                 .isInstanceOf(UsernameNotFoundException.class)
                 .hasMessage("Not found!");
     }
+
+    @Test
+    @DisplayName("Test for authentication, unknown email")
+    void testAuthentication_UnknownEmail() {
+        String email = "unknown@gmail.com";
+
+        when(emailBloomFilter.mightContainNow(email)).thenReturn(false);
+
+        assertThatThrownBy(() -> userDetailsService.loadUserByUsername(email))
+                .isInstanceOf(UsernameNotFoundException.class)
+                .hasMessage("Not found!");
+        verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    @DisplayName("Test for cached authentication")
+    void testCachedAuthentication() {
+        String email = "email@gmail.com";
+        User user = User.builder().user_id(1L).email(email).password("hash").authority(Authorities.USER).build();
+        CredentialCache cache = new CredentialCache(10, 300);
+        AuthenticationProvider provider = cachingProvider(cache);
+
+        when(emailBloomFilter.mightContainNow(email)).thenReturn(true);
+        when(userRepository.findUserByEmail(email)).thenReturn(Optional.of(user));
+        when(passwordEncoder.matches("1234", "hash")).thenReturn(true);
+
+        Authentication first = provider.authenticate(UsernamePasswordAuthenticationToken.unauthenticated(email, "1234"));
+        Authentication second = provider.authenticate(UsernamePasswordAuthenticationToken.unauthenticated(email, "1234"));
+
+        assertThat(second.isAuthenticated()).isTrue();
+        assertThat(second.getPrincipal()).isEqualTo(first.getPrincipal());
+        assertThat(second.getAuthorities()).isEqualTo(first.getAuthorities());
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        assertThat(registry.get("cache.gets").tags("cache", "credentials", "result", "hit")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tags("cache", "credentials", "result", "miss")
+                .functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.size").tag("cache", "credentials").gauge().value()).isEqualTo(1);
+        verify(userRepository, times(1)).findUserByEmail(email);
+        verify(passwordEncoder, times(1)).matches("1234", "hash");
+    }
+
+    @Test
+    @DisplayName("Test for cached authentication, wrong password")
+    void testCachedAuthentication_WrongPassword() {
+        String email = "email@gmail.com";
+        User user = User.builder().user_id(1L).email(email).password("hash").authority(Authorities.USER).build();
+        CredentialCache cache = new CredentialCache(10, 300);
+        AuthenticationProvider provider = cachingProvider(cache);
+
+        when(emailBloomFilter.mightContainNow(email)).thenReturn(true);
+        when(userRepository.findUserByEmail(email)).thenReturn(Optional.of(user));
+        when(passwordEncoder.matches("1234", "hash")).thenReturn(true);
+        when(passwordEncoder.matches("4321", "hash")).thenReturn(false);
+
+        provider.authenticate(UsernamePasswordAuthenticationToken.unauthenticated(email, "1234"));
+
+        assertThatThrownBy(() -> provider.authenticate(UsernamePasswordAuthenticationToken.unauthenticated(email, "4321")))
+                .isInstanceOf(BadCredentialsException.class);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Test for credential cache eviction")
+    void testCredentialCacheEviction() {
+        CredentialCache cache = new CredentialCache(2, 300);
+        UserAdapter first = new UserAdapter(User.builder().email("first@gmail.com").build());
+        UserAdapter second = new UserAdapter(User.builder().email("second@gmail.com").build());
+
+        cache.put("first@gmail.com", "1", first);
+        cache.put("first@gmail.com", "2", first);
+        cache.put("second@gmail.com", "3", second);
+
+        assertThat(cache.get("first@gmail.com", "1")).isEmpty();
+        assertThat(cache.get("first@gmail.com", "2")).contains(first);
+
+        cache.evict("first@gmail.com");
+
+        assertThat(cache.get("first@gmail.com", "2")).isEmpty();
+        assertThat(cache.get("second@gmail.com", "3")).contains(second);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Test for credential cache expiry")
+    void testCredentialCacheExpiry() {
+        CredentialCache cache = new CredentialCache(10, 0);
+        cache.put("email@gmail.com", "1234", new UserAdapter(new User()));
+
+        assertThat(cache.get("email@gmail.com", "1234")).isEmpty();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Test for email bloom filter")
+    void testEmailBloomFilter() {
+        UserRepository.UserEmail registered = mock(UserRepository.UserEmail.class);
+        when(registered.getUser_id()).thenReturn(1L);
+        when(registered.getEmail()).thenReturn("email@gmail.com");
+        UserRepository.UserEmail later = mock(UserRepository.UserEmail.class);
+        when(later.getUser_id()).thenReturn(2L);
+        when(later.getEmail()).thenReturn("later@gmail.com");
+        when(userRepository.findEmailsAfter(eq(0L), any())).thenReturn(List.of(registered));
+        when(userRepository.findEmailsAfter(eq(1L), any())).thenReturn(List.of(later));
+        EmailBloomFilter filter = new EmailBloomFilter(userRepository, 1000, 0.01, 0);
+
+        filter.rebuild();
+        filter.put("new@gmail.com");
+
+        assertThat(filter.mightContain("Email@Gmail.com")).isTrue();
+        assertThat(filter.mightContain("new@gmail.com")).isTrue();
+        assertThat(filter.mightContain("later@gmail.com")).isTrue();
+        assertThat(IntStream.range(0, 1000).filter(i -> filter.mightContain(i + "@unknown.com")).count())
+                .isLessThan(50);
+    }
+
+    @Test
+    @DisplayName("Test for token expiry")
+    void testTokenExpiry() {
+        Instant now = Instant.parse("2024-05-01T10:00:00Z");
+        User user = User.builder().user_id(1L).email("email@gmail.com").authority(Authorities.ADMIN).build();
+        String secret = Base64.getEncoder().encodeToString(new byte[32]);
+        String token = new TokenService(secret, 60, Clock.fixed(now, ZoneOffset.UTC)).issue(user).getAccess_token();
+
+        assertThat(new TokenService(secret, 60, Clock.fixed(now.plusSeconds(59), ZoneOffset.UTC)).verify(token))
+                .contains(new UserAdapter(user));
+        assertThat(new TokenService(secret, 60, Clock.fixed(now.plusSeconds(60), ZoneOffset.UTC)).verify(token))
+                .isEmpty();
+        assertThat(new TokenService(null, 60, Clock.fixed(now, ZoneOffset.UTC)).verify(token))
+                .isEmpty();
+    }
+
+    @Test
+    @DisplayName("Test for rate limiter refill")
+    void testRateLimiterRefill() {
+        AtomicLong now = new AtomicLong(-TimeUnit.DAYS.toNanos(1)); //nanoTime may be negative
+        RateLimiter rateLimiter = new RateLimiter(Map.of(
+                Authorities.USER, new RateLimiter.Limit(2, 1),
+                Authorities.ADMIN, new RateLimiter.Limit(10, 10)), 10, now::get);
+
+        assertThat(rateLimiter.tryAcquire("email@gmail.com", Authorities.USER).remaining()).isEqualTo(1);
+        assertThat(rateLimiter.tryAcquire("email@gmail.com", Authorities.USER).remaining()).isEqualTo(0);
+        RateLimiter.Decision rejected = rateLimiter.tryAcquire("email@gmail.com", Authorities.USER);
+        assertThat(rejected.allowed()).isFalse();
+        assertThat(rejected.retryAfterSeconds()).isEqualTo(1);
+        assertThat(rateLimiter.tryAcquire("other@gmail.com", Authorities.USER).allowed()).isTrue();
+        assertThat(rateLimiter.tryAcquire("email@gmail.com", Authorities.ADMIN).remaining()).isEqualTo(9);
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+        assertThat(rateLimiter.tryAcquire("email@gmail.com", Authorities.USER).allowed()).isTrue();
+        assertThat(rateLimiter.tryAcquire("email@gmail.com", Authorities.USER).allowed()).isFalse();
+        assertThat(rateLimiter.getAllowedCount()).isEqualTo(5);
+        assertThat(rateLimiter.getRejectedCount()).isEqualTo(2);
+
+        MeterRegistry registry = new SimpleMeterRegistry();
+        rateLimiter.bindTo(registry);
+        assertThat(registry.get("friends.sharing.rate.limit.requests").tag("result", "allowed")
+                .functionCounter().count()).isEqualTo(5);
+        assertThat(registry.get("friends.sharing.rate.limit.requests").tag("result", "rejected")
+                .functionCounter().count()).isEqualTo(2);
+        assertThat(registry.get("friends.sharing.rate.limit.tracked.users").gauge().value()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Test for email filter rebuild")
+    void testEmailBloomFilterRebuild() {
+        EmailBloomFilter filter = new EmailBloomFilter(userRepository, 100, 0.01, 3600);
+        UserRepository.UserEmail known = userEmail(1L, "email@gmail.com");
+        when(userRepository.count()).thenReturn(1L);
+        when(userRepository.findEmailsAfter(eq(0L), any()))
+                .thenReturn(List.of(known))
+                .thenAnswer(invocation -> {
+                    assertThat(filter.mightContain("email@gmail.com")).isTrue(); //the old bits still answer
+                    filter.put("new@gmail.com"); //registered while the users are read
+                    return List.of(known);
+                });
+
+        filter.rebuild();
+        filter.rebuild();
+
+        assertThat(filter.mightContain("email@gmail.com")).isTrue();
+        assertThat(filter.mightContain("new@gmail.com")).isTrue();
+    }
+
+    @Test
+    @DisplayName("Test for email filter, user registered on another instance")
+    void testEmailBloomFilter_RegisteredElsewhere() {
+        EmailBloomFilter filter = new EmailBloomFilter(userRepository, 100, 0.01, 3600);
+        when(userRepository.findEmailsAfter(eq(0L), any()))
+                .thenReturn(List.of(userEmail(1L, "email@gmail.com")));
+        when(userRepository.findEmailsAfter(eq(1L), any()))
+                .thenReturn(List.of(userEmail(2L, "other@gmail.com")));
+
+        filter.rebuild();
+
+        assertThat(filter.mightContain("other@gmail.com")).isFalse(); //not refreshed yet
+        assertThat(filter.mightContainNow("other@gmail.com")).isTrue();
+        assertThat(filter.mightContainNow("unknown@gmail.com")).isFalse();
+        verify(userRepository, times(1)).findEmailsAfter(eq(1L), any());
+        verify(userRepository, times(1)).findEmailsAfter(eq(2L), any());
+    }
+
+    private static UserRepository.UserEmail userEmail(Long id, String email) {
+        return new UserRepository.UserEmail() {
+            @Override
+            public Long getUser_id() {
+                return id;
+            }
+
+            @Override
+            public String getEmail() {
+                return email;
+            }
+        };
+    }
+
+    private AuthenticationProvider cachingProvider(CredentialCache cache) {
+        DaoAuthenticationProvider daoAuthenticationProvider = new DaoAuthenticationProvider(passwordEncoder);
+        daoAuthenticationProvider.setUserDetailsService(userDetailsService);
+        return new CachingAuthenticationProvider(daoAuthenticationProvider, cache);
+    }
 }